@@ -9,11 +9,32 @@ public class AIConfiguration {
     private String analysisPrompt;
     private Double temperature;
     private Integer maxTokens;
+    // Provider rate limits for this model; null means unlimited
+    private Integer requestsPerMinute;
+    private Integer tokensPerMinute;
+    // Model context window in tokens (prompt plus completion); null uses ai.prompt.default-context-window
+    private Integer contextWindow;
+    // false always calls the model, e.g. when varied responses are wanted; null means cache
+    private Boolean cacheResponses;
     private boolean active;
 
     // Default constructor
     public AIConfiguration() {}
 
+    public AIConfiguration(AIConfiguration other) {
+        this.id = other.id;
+        this.model = other.model;
+        this.systemPrompt = other.systemPrompt;
+        this.analysisPrompt = other.analysisPrompt;
+        this.temperature = other.temperature;
+        this.maxTokens = other.maxTokens;
+        this.requestsPerMinute = other.requestsPerMinute;
+        this.tokensPerMinute = other.tokensPerMinute;
+        this.contextWindow = other.contextWindow;
+        this.cacheResponses = other.cacheResponses;
+        this.active = other.active;
+    }
+
     // Getters and Setters
     public String getId() {
         return id;
@@ -63,6 +84,38 @@ public class AIConfiguration {
         this.maxTokens = maxTokens;
     }
 
+    public Integer getRequestsPerMinute() {
+        return requestsPerMinute;
+    }
+
+    public void setRequestsPerMinute(Integer requestsPerMinute) {
+        this.requestsPerMinute = requestsPerMinute;
+    }
+
+    public Integer getTokensPerMinute() {
+        return tokensPerMinute;
+    }
+
+    public void setTokensPerMinute(Integer tokensPerMinute) {
+        this.tokensPerMinute = tokensPerMinute;
+    }
+
+    public Integer getContextWindow() {
+        return contextWindow;
+    }
+
+    public void setContextWindow(Integer contextWindow) {
+        this.contextWindow = contextWindow;
+    }
+
+    public Boolean getCacheResponses() {
+        return cacheResponses;
+    }
+
+    public void setCacheResponses(Boolean cacheResponses) {
+        this.cacheResponses = cacheResponses;
+    }
+
     public boolean isActive() {
         return active;
     }
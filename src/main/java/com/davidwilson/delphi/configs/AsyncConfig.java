@@ -9,23 +9,40 @@ import java.util.concurrent.Executor;
 
 @Configuration
 public class AsyncConfig {
-    @Value("${submission.executor.corePoolSize}")
-    private int corePoolSize;
+    @Value("${submission.executor.workers}")
+    private int workers;
 
-    @Value("${submission.executor.maxPoolSize}")
-    private int maxPoolSize;
+    @Value("${ai.analysis.concurrency}")
+    private int analysisConcurrency;
 
-    @Value("${submission.executor.queueCapacity}")
-    private int queueCapacity;
+    @Value("${ai.analysis.queue-capacity}")
+    private int analysisQueueCapacity;
 
+    // Each worker is a long-running SubmissionProcessor loop, so the pool is sized
+    // exactly to the worker count and never queues tasks of its own.
     @Bean(name = "submissionExecutor")
     public Executor taskExecutor() {
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(corePoolSize);
-        executor.setMaxPoolSize(maxPoolSize);
-        executor.setQueueCapacity(queueCapacity);
-        executor.setThreadNamePrefix("FileExecution-");
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("SubmissionWorker-");
+        executor.setWaitForTasksToCompleteOnShutdown(false);
         executor.initialize();
         return executor;
     }
-}
\ No newline at end of file
+
+    // AI feedback runs after grading on its own threads, so slow LLM calls never hold a grading worker.
+    // Rejected tasks stay "Pending" in the database and are picked up by the next recovery sweep.
+    @Bean(name = "analysisExecutor")
+    public Executor analysisExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(analysisConcurrency);
+        executor.setMaxPoolSize(analysisConcurrency);
+        executor.setQueueCapacity(analysisQueueCapacity);
+        executor.setThreadNamePrefix("AnalysisWorker-");
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        executor.initialize();
+        return executor;
+    }
+}
@@ -0,0 +1,89 @@
+package com.davidwilson.delphi.configs;
+
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.ResponseErrorHandler;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.List;
+
+/**
+ * Shared HTTP clients for outbound calls. Each target gets its own connection pool with keep-alive,
+ * a connection cap and its own timeouts, so a slow LLM cannot use up the connections Keycloak needs and
+ * no call can hang forever. A caller waits at most acquire-timeout-ms for a free connection.
+ */
+@Configuration
+public class HttpClientConfig {
+
+    private static final TimeValue IDLE_EVICTION = TimeValue.ofSeconds(30);
+    private static final TimeValue CONNECTION_TTL = TimeValue.ofMinutes(5);
+
+    @Value("${http.pool.acquire-timeout-ms}")
+    private long acquireTimeoutMillis;
+
+    @Bean(name = "llmRestTemplate")
+    public RestTemplate llmRestTemplate(HttpClientMetrics metrics,
+                                        @Value("${http.llm.max-connections}") int maxConnections,
+                                        @Value("${http.llm.connect-timeout-ms}") long connectTimeoutMillis,
+                                        @Value("${http.llm.read-timeout-ms}") long readTimeoutMillis) {
+        return pooledRestTemplate("llm", metrics, maxConnections, connectTimeoutMillis, readTimeoutMillis);
+    }
+
+    // Keycloak errors are passed back to the frontend as they are, so they are returned rather than thrown
+    @Bean(name = "keycloakRestTemplate")
+    public RestTemplate keycloakRestTemplate(HttpClientMetrics metrics,
+                                             @Value("${http.keycloak.max-connections}") int maxConnections,
+                                             @Value("${http.keycloak.connect-timeout-ms}") long connectTimeoutMillis,
+                                             @Value("${http.keycloak.read-timeout-ms}") long readTimeoutMillis) {
+        RestTemplate restTemplate = pooledRestTemplate("keycloak", metrics, maxConnections, connectTimeoutMillis, readTimeoutMillis);
+        restTemplate.setErrorHandler(new ResponseErrorHandler() {
+            @Override
+            public boolean hasError(ClientHttpResponse response) {
+                return false;
+            }
+
+            @Override
+            public void handleError(ClientHttpResponse response) {
+            }
+        });
+        return restTemplate;
+    }
+
+    private RestTemplate pooledRestTemplate(String name, HttpClientMetrics metrics, int maxConnections,
+                                            long connectTimeoutMillis, long readTimeoutMillis) {
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnections)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMillis))
+                        .setSocketTimeout(Timeout.ofMilliseconds(readTimeoutMillis))
+                        .setTimeToLive(CONNECTION_TTL)
+                        .build())
+                .build();
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(acquireTimeoutMillis))
+                        .setResponseTimeout(Timeout.ofMilliseconds(readTimeoutMillis))
+                        .build())
+                .evictIdleConnections(IDLE_EVICTION)
+                .evictExpiredConnections()
+                .build();
+        metrics.register(name, connectionManager);
+
+        RestTemplate restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+        restTemplate.setInterceptors(List.of(metrics.interceptor(name)));
+        return restTemplate;
+    }
+}
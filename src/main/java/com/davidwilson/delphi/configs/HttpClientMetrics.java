@@ -0,0 +1,85 @@
+package com.davidwilson.delphi.configs;
+
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.pool.PoolStats;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency and connection pool figures for the shared HTTP clients, one entry per target service.
+ * Pending is the number of callers waiting for a connection; a non-zero value means the pool is saturated.
+ */
+@Component
+public class HttpClientMetrics {
+
+    private final Map<String, Target> targets = new ConcurrentHashMap<>();
+
+    void register(String name, PoolingHttpClientConnectionManager pool) {
+        targets.put(name, new Target(pool));
+    }
+
+    ClientHttpRequestInterceptor interceptor(String name) {
+        return (request, body, execution) -> {
+            Target target = targets.get(name);
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                ClientHttpResponse response = execution.execute(request, body);
+                failed = response.getStatusCode().isError();
+                return response;
+            } finally {
+                target.record(System.nanoTime() - start, failed);
+            }
+        };
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        targets.forEach((name, target) -> snapshot.put(name, target.snapshot()));
+        return snapshot;
+    }
+
+    private static class Target {
+        private final PoolingHttpClientConnectionManager pool;
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        Target(PoolingHttpClientConnectionManager pool) {
+            this.pool = pool;
+        }
+
+        void record(long nanos, boolean failed) {
+            requests.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            if (failed) {
+                errors.increment();
+            }
+        }
+
+        Map<String, Object> snapshot() {
+            PoolStats stats = pool.getTotalStats();
+            long count = requests.sum();
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("requests", count);
+            snapshot.put("errors", errors.sum());
+            snapshot.put("averageMillis", count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.sum() / count));
+            snapshot.put("maxMillis", TimeUnit.NANOSECONDS.toMillis(maxNanos.get()));
+            snapshot.put("leasedConnections", stats.getLeased());
+            snapshot.put("availableConnections", stats.getAvailable());
+            snapshot.put("pendingConnections", stats.getPending());
+            snapshot.put("maxConnections", stats.getMax());
+            return snapshot;
+        }
+    }
+}
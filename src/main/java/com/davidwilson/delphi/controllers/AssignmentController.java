@@ -9,11 +9,16 @@ import com.davidwilson.delphi.config.AIConfiguration;
 import com.davidwilson.delphi.repositories.AssignmentRepository;
 import com.davidwilson.delphi.repositories.TestCaseRepository;
 import com.davidwilson.delphi.repositories.AssignmentGroupRepository;
+import com.davidwilson.delphi.repositories.LatestSubmissionRepository;
+import com.davidwilson.delphi.repositories.SubmissionCursor;
+import com.davidwilson.delphi.repositories.SubmissionSummary;
 import com.davidwilson.delphi.repositories.SubmissionRepository;
 import com.davidwilson.delphi.services.AssignmentService;
 import com.davidwilson.delphi.services.AIConfigurationService;
 import com.davidwilson.delphi.services.AIAnalysisService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -40,6 +45,9 @@ public class AssignmentController {
     @Autowired
     private SubmissionRepository submissionRepository;
 
+    @Autowired
+    private LatestSubmissionRepository latestSubmissionRepository;
+
     @Autowired
     private AssignmentService assignmentService;
 
@@ -55,22 +63,39 @@ public class AssignmentController {
         return assignment.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.notFound().build());
     }
 
+    // Newest first, one finished submission per user, paged like /api/submissions/user/{userId}
     @GetMapping("/{id}/submissions")
-    public ResponseEntity<List<Submissions>> getLatestSubmissionsPerUser(@PathVariable UUID id) {
-        List<Submissions> submissions = submissionRepository.findLatestSubmissionsPerUserForAssignment(id);
+    public ResponseEntity<List<SubmissionSummary>> getLatestSubmissionsPerUser(@PathVariable UUID id,
+                                                                               @RequestParam(required = false) String cursor,
+                                                                               @RequestParam(defaultValue = "100") int limit) {
+        Limit pageLimit = Limit.of(Math.min(Math.max(limit, 1), SubmissionController.MAX_PAGE_SIZE));
+        List<SubmissionSummary> submissions;
+        try {
+            if (cursor == null) {
+                submissions = latestSubmissionRepository.findLatestSummaries(id, pageLimit);
+            } else {
+                SubmissionCursor after = SubmissionCursor.parse(cursor);
+                submissions = latestSubmissionRepository.findLatestSummariesAfter(id, after.submittedAt(), after.id(), pageLimit);
+            }
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
         if (submissions.isEmpty()) {
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
         }
-        
-        // Sort by timestamp in descending order (newest first)
-        submissions.sort((o1, o2) -> o2.getTimestamp().compareTo(o1.getTimestamp()));
-        return new ResponseEntity<>(submissions, HttpStatus.OK);
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (submissions.size() == pageLimit.max()) {
+            response.header(SubmissionController.NEXT_CURSOR_HEADER, submissions.get(submissions.size() - 1).cursor().encode());
+        }
+        return response.body(submissions);
     }
 
     @GetMapping("/{id}/submissions/analyze")
-    public ResponseEntity<String> analyzeSubmissionsSubset(@PathVariable UUID id) {
+    public ResponseEntity<String> analyzeSubmissionsSubset(@PathVariable UUID id,
+                                                           @RequestParam(defaultValue = "false") boolean refresh) {
         // Get all latest submissions per user
-        List<Submissions> allSubmissions = submissionRepository.findLatestSubmissionsPerUserForAssignment(id);
+        List<Submissions> allSubmissions = latestSubmissionRepository.findLatestForAssignment(id, Pageable.unpaged()).getContent();
         
         if (allSubmissions.isEmpty()) {
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
@@ -108,7 +133,7 @@ public class AssignmentController {
         }
         
         // Call the AI service to analyze
-        String analysis = aiAnalysisService.analyzeSubmissionText(prompt.toString());
+        String analysis = aiAnalysisService.analyzeSubmissionText(prompt.toString(), refresh);
         
         return new ResponseEntity<>(analysis, HttpStatus.OK);
     }
@@ -3,19 +3,27 @@ import com.davidwilson.delphi.entities.Assignment;
 import com.davidwilson.delphi.entities.Submissions;
 import com.davidwilson.delphi.repositories.AssignmentRepository;
 import com.davidwilson.delphi.repositories.SubmissionRepository;
+import com.davidwilson.delphi.services.BlobStore;
+import com.davidwilson.delphi.services.ChunkedUploadService;
 import com.davidwilson.delphi.services.ExecutionQueueService;
 import com.davidwilson.delphi.services.FileUploadService;
 import com.davidwilson.delphi.services.FileExecutionService;
+import com.davidwilson.delphi.services.QueueFullException;
 
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.multipart.MaxUploadSizeExceededException;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Timestamp;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.UUID;
 import java.util.logging.Logger;
@@ -27,6 +35,9 @@ public class FileUploadController {
 
     private static final String ZIP_MIME_TYPE = "application/zip";
     private static final String ZIP_EXTENSION = ".zip";
+    private static final String UPLOAD_OFFSET = "Upload-Offset";
+    private static final String UPLOAD_LENGTH = "Upload-Length";
+    private static final String UPLOAD_CHECKSUM = "Upload-Checksum";
     private static final org.slf4j.Logger log = LoggerFactory.getLogger(FileUploadController.class);
 
 
@@ -35,14 +46,16 @@ public class FileUploadController {
     private final ExecutionQueueService executionQueueService;
     private final SubmissionController submissionController;
     private final AssignmentRepository assignmentRepository;
+    private final ChunkedUploadService chunkedUploadService;
     Logger logger = Logger.getLogger(FileUploadController.class.getName());
 
-    public FileUploadController(FileUploadService fileUploadService, SubmissionRepository submissionRepository, ExecutionQueueService executionQueueService, SubmissionController submissionController, AssignmentRepository assignmentRepository) {
+    public FileUploadController(FileUploadService fileUploadService, SubmissionRepository submissionRepository, ExecutionQueueService executionQueueService, SubmissionController submissionController, AssignmentRepository assignmentRepository, ChunkedUploadService chunkedUploadService) {
         this.fileUploadService = fileUploadService;
         this.submissionRepository = submissionRepository;
         this.executionQueueService = executionQueueService;
         this.submissionController = submissionController;
         this.assignmentRepository = assignmentRepository;
+        this.chunkedUploadService = chunkedUploadService;
     }
 
 
@@ -64,25 +77,29 @@ public class FileUploadController {
                 return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
             }
 
+            // Reject early while the grading queue is saturated rather than buffering more work
+            if (!executionQueueService.hasCapacity()) {
+                return queueFullResponse(response);
+            }
+
             // Fetch assignment
             Assignment assignment = assignmentRepository.findById(UUID.fromString(assignmentId))
                     .orElseThrow(() -> new IllegalArgumentException("Invalid assignment ID"));
 
             // Save file
-            String filePath = fileUploadService.saveFile(file);
-            log.info("File uploaded successfully: " + file.getOriginalFilename() + ", Path: " + filePath);
-
-            // Create submission and set all necessary fields
-            Submissions submission = new Submissions();
-            submission.setUserId(userID);
-            submission.setFileName(file.getOriginalFilename());
-            submission.setTimestamp(String.valueOf(System.currentTimeMillis()));
-            submission.setStatus("Pending");
-            submission.setAssignment(assignment);  // ✅ FIX: Setting the assignment entity
-            submissionRepository.save(submission);
+            BlobStore.StoredBlob blob = fileUploadService.saveFile(file);
+            log.info("File uploaded successfully: " + file.getOriginalFilename() + ", Blob: " + blob.digest());
 
-            // Add submission to execution queue
-            executionQueueService.addSubmission(submission);
+            Submissions submission;
+            try {
+                submission = queueSubmission(userID, assignment, file.getOriginalFilename(), blob);
+            } catch (QueueFullException e) {
+                // Lost the race for the last queue slot
+                return queueFullResponse(response);
+            } finally {
+                // The upload's own reference; a queued submission holds another
+                fileUploadService.release(blob);
+            }
 
             response.put("message", "File uploaded successfully. Submission queued for execution.");
             response.put("submissionId", submission.getId());
@@ -98,6 +115,201 @@ public class FileUploadController {
         }
     }
 
+    /**
+     * Starts a chunked upload of a zip of the given length. Chunks are then sent with
+     * PUT /uploads/{uploadId} and an Upload-Offset header, in any order and in parallel; the submission
+     * is created and queued when the last one arrives. Pass sha256 to have the assembled file checked.
+     * The upload lives in the memory of the instance that created it, so behind a load balancer every
+     * request for it must be routed to that instance (sticky sessions); elsewhere it is unknown (404).
+     */
+    @PostMapping("/uploads")
+    public ResponseEntity<Map<String, Object>> createUpload(@RequestParam String fileName, @RequestParam String assignmentId,
+                                                            @RequestParam long length, @RequestParam(required = false) String sha256,
+                                                            @RequestHeader("Authorization") String token) {
+        Map<String, Object> response = new HashMap<>();
+        if (!fileName.endsWith(ZIP_EXTENSION)) {
+            response.put("message", "Bad file type. Formats accepted: .zip");
+            return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+        }
+        String userID = extractUserID(token);
+        if (userID.isEmpty()) {
+            response.put("message", "User not found");
+            return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+        }
+        if (!executionQueueService.hasCapacity()) {
+            return queueFullResponse(response);
+        }
+        try {
+            Assignment assignment = assignmentRepository.findById(UUID.fromString(assignmentId))
+                    .orElseThrow(() -> new IllegalArgumentException("Invalid assignment ID."));
+            ChunkedUploadService.UploadSession session =
+                    chunkedUploadService.create(userID, assignment.getId(), fileName, length, sha256);
+            response.put("uploadId", session.getId());
+            response.put("chunkSize", session.getChunkSize());
+            response.put("length", session.getLength());
+            return ResponseEntity.status(HttpStatus.CREATED)
+                    .header(HttpHeaders.LOCATION, "/api/files/uploads/" + session.getId())
+                    .body(response);
+        } catch (IllegalArgumentException | IOException e) {
+            return uploadErrorResponse(response, e);
+        }
+    }
+
+    // Upload-Offset is where to resume from; missingOffsets lists every chunk still to send
+    @GetMapping("/uploads/{uploadId}")
+    public ResponseEntity<Map<String, Object>> getUpload(@PathVariable UUID uploadId, @RequestHeader("Authorization") String token) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            ChunkedUploadService.UploadSession session = chunkedUploadService.get(uploadId, extractUserID(token));
+            long offset = session.getOffset();
+            response.put("offset", offset);
+            response.put("length", session.getLength());
+            response.put("chunkSize", session.getChunkSize());
+            response.put("missingOffsets", session.getMissingOffsets());
+            response.put("submissionId", session.getSubmissionId());
+            return ResponseEntity.ok()
+                    .header(UPLOAD_OFFSET, String.valueOf(offset))
+                    .header(UPLOAD_LENGTH, String.valueOf(session.getLength()))
+                    .header(HttpHeaders.CACHE_CONTROL, "no-store")
+                    .body(response);
+        } catch (NoSuchElementException e) {
+            return uploadErrorResponse(response, e);
+        }
+    }
+
+    @PutMapping(value = "/uploads/{uploadId}", consumes = {MediaType.APPLICATION_OCTET_STREAM_VALUE, "application/offset+octet-stream"})
+    public ResponseEntity<Map<String, Object>> uploadChunk(@PathVariable UUID uploadId,
+                                                           @RequestHeader(UPLOAD_OFFSET) long offset,
+                                                           @RequestHeader(value = UPLOAD_CHECKSUM, required = false) String checksum,
+                                                           @RequestHeader("Authorization") String token,
+                                                           InputStream body) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            ChunkedUploadService.UploadSession session = chunkedUploadService.get(uploadId, extractUserID(token));
+            if (chunkedUploadService.writeChunk(session, offset, body, checksum)) {
+                return finishUpload(session, response);
+            }
+            return ResponseEntity.noContent()
+                    .header(UPLOAD_OFFSET, String.valueOf(session.getOffset()))
+                    .build();
+        } catch (RuntimeException | IOException e) {
+            return uploadErrorResponse(response, e);
+        }
+    }
+
+    // Retries the final step, e.g. after the last chunk was answered with 503 because the queue was full
+    @PostMapping("/uploads/{uploadId}/complete")
+    public ResponseEntity<Map<String, Object>> completeUpload(@PathVariable UUID uploadId, @RequestHeader("Authorization") String token) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            return finishUpload(chunkedUploadService.get(uploadId, extractUserID(token)), response);
+        } catch (RuntimeException e) {
+            return uploadErrorResponse(response, e);
+        }
+    }
+
+    @DeleteMapping("/uploads/{uploadId}")
+    public ResponseEntity<Map<String, Object>> abortUpload(@PathVariable UUID uploadId, @RequestHeader("Authorization") String token) {
+        try {
+            chunkedUploadService.abort(chunkedUploadService.get(uploadId, extractUserID(token)));
+            return ResponseEntity.noContent().build();
+        } catch (NoSuchElementException e) {
+            return uploadErrorResponse(new HashMap<>(), e);
+        }
+    }
+
+    private ResponseEntity<Map<String, Object>> finishUpload(ChunkedUploadService.UploadSession session,
+                                                             Map<String, Object> response) {
+        synchronized (session) {
+            if (session.getSubmissionId() == null) {
+                if (!executionQueueService.hasCapacity()) {
+                    return queueFullResponse(response);
+                }
+                try {
+                    Assignment assignment = assignmentRepository.findById(session.getAssignmentId())
+                            .orElseThrow(() -> new IllegalArgumentException("Invalid assignment ID."));
+                    BlobStore.StoredBlob blob = chunkedUploadService.assemble(session);
+                    Submissions submission = queueSubmission(session.getUserId(), assignment, session.getFileName(), blob);
+                    chunkedUploadService.finish(session, submission.getId());
+                    log.info("Chunked upload {} queued as submission {}", session.getId(), submission.getId());
+                } catch (QueueFullException e) {
+                    // The session keeps the assembled blob, so the client only has to retry completion
+                    return queueFullResponse(response);
+                } catch (IllegalArgumentException | IllegalStateException | IOException e) {
+                    return uploadErrorResponse(response, e);
+                }
+            }
+        }
+        response.put("message", "File uploaded successfully. Submission queued for execution.");
+        response.put("submissionId", session.getSubmissionId());
+        return new ResponseEntity<>(response, HttpStatus.OK);
+    }
+
+    private ResponseEntity<Map<String, Object>> uploadErrorResponse(Map<String, Object> response, Exception e) {
+        HttpStatus status;
+        if (e instanceof NoSuchElementException) {
+            status = HttpStatus.NOT_FOUND;
+        } else if (e instanceof ChunkedUploadService.ChecksumMismatchException) {
+            // tus answers a failed checksum with 460, which has no HttpStatus constant
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(460).body(response);
+        } else if (e instanceof IllegalArgumentException) {
+            status = HttpStatus.BAD_REQUEST;
+        } else if (e instanceof IllegalStateException) {
+            status = HttpStatus.CONFLICT;
+        } else {
+            log.error("Chunked upload failed", e);
+            response.put("message", "Failed to upload the file. Please try again.");
+            return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+        response.put("message", e.getMessage());
+        return new ResponseEntity<>(response, status);
+    }
+
+    // Creates the "Pending" row, which is the queue entry and holds its own blob reference, and wakes a
+    // worker. If the queue filled up meanwhile the row is deleted again and QueueFullException thrown.
+    // Either way the caller keeps its own reference and releases it when done.
+    private Submissions queueSubmission(String userID, Assignment assignment, String fileName, BlobStore.StoredBlob blob) {
+        Submissions submission = new Submissions();
+        submission.setUserId(userID);
+        submission.setFileName(fileName);
+        long now = System.currentTimeMillis();
+        submission.setTimestamp(String.valueOf(now));
+        submission.setSubmittedAt(new Timestamp(now));
+        submission.setStatus("Pending");
+        submission.setAssignment(assignment);
+        submission.setContentHash(blob.digest());
+        fileUploadService.retain(blob);
+        try {
+            submissionRepository.save(submission);
+        } catch (RuntimeException e) {
+            // No row was persisted to hold the reference
+            fileUploadService.release(blob);
+            throw e;
+        }
+
+        // From here on the row exists and owns its reference; only a full queue takes it back out
+        try {
+            executionQueueService.addSubmission(submission);
+        } catch (QueueFullException e) {
+            fileUploadService.deleteSubmission(submission);
+            throw e;
+        } catch (RuntimeException e) {
+            // The row is already queued and a worker's next poll claims it
+            log.warn("Could not signal a worker for submission {}: {}", submission.getId(), e.getMessage());
+        }
+        return submission;
+    }
+
+    private ResponseEntity<Map<String, Object>> queueFullResponse(Map<String, Object> response) {
+        long retryAfterSeconds = Math.max(1, executionQueueService.estimateWaitMillis(1) / 1000);
+        response.put("message", "The grading queue is full. Please try again shortly.");
+        response.put("queueDepth", executionQueueService.getQueueDepth());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(response);
+    }
+
     // Handle MaxUploadSizeExceededException
     @ExceptionHandler(MaxUploadSizeExceededException.class)
     public ResponseEntity<String> handleMaxSizeException(MaxUploadSizeExceededException e) {
@@ -1,5 +1,8 @@
 package com.davidwilson.delphi.controllers;
 
+import com.davidwilson.delphi.services.KeycloakAdminClient;
+import com.davidwilson.delphi.services.KeycloakUserCache;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.util.LinkedMultiValueMap;
@@ -8,7 +11,7 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.servlet.view.ContentNegotiatingViewResolver;
 
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
@@ -16,6 +19,9 @@ import java.util.Objects;
 @RequestMapping("/api/auth")
 public class SecurityController {
 
+    static final int MAX_BATCH_SIZE = 400;
+    private static final String MANAGER_ROLE = "[{\"id\":\"c301a96d-7994-49cc-bbbb-f2acf665a3b2\",\"name\":\"manager\"}]";
+
     private final ContentNegotiatingViewResolver contentNegotiatingViewResolver;
     @Value("${spring.security.oauth2.client.registration.keycloak.client-id}")
     private String clientId;
@@ -27,37 +33,22 @@ public class SecurityController {
     private String registerUri;
     @Value("${keycloak.adminUri}")
     private String adminUri;
-    private String clientToken;
+    private final RestTemplate restTemplate;
+    private final KeycloakAdminClient keycloakAdminClient;
+    private final KeycloakUserCache keycloakUserCache;
 
-    public SecurityController(ContentNegotiatingViewResolver contentNegotiatingViewResolver) {
+    public SecurityController(ContentNegotiatingViewResolver contentNegotiatingViewResolver,
+                              @Qualifier("keycloakRestTemplate") RestTemplate restTemplate,
+                              KeycloakAdminClient keycloakAdminClient, KeycloakUserCache keycloakUserCache) {
         this.contentNegotiatingViewResolver = contentNegotiatingViewResolver;
+        this.restTemplate = restTemplate;
+        this.keycloakAdminClient = keycloakAdminClient;
+        this.keycloakUserCache = keycloakUserCache;
     }
 
     @GetMapping("/getUsers")
     public ResponseEntity<String> getUsers() {
-        RestTemplate restTemplate = new RestTemplate();
-        String accessToken = getCurrentAccessToken();
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setBearerAuth(accessToken);
-
-        HttpEntity<String> request = new HttpEntity<>(headers);
-        ResponseEntity<String> response = restTemplate.exchange(registerUri, HttpMethod.GET, request, String.class);
-
-        if (response.getStatusCode() == HttpStatus.UNAUTHORIZED) {
-            // Obtain a new bearer token
-            accessToken = obtainNewAccessToken();
-            headers.setBearerAuth(accessToken);
-            request = new HttpEntity<>(headers);
-            response = restTemplate.exchange(registerUri, HttpMethod.GET, request, String.class);
-        }
-
-        if (response.getStatusCode() == HttpStatus.OK) {
-            return ResponseEntity.ok(response.getBody());
-        } else {
-            return ResponseEntity.status(response.getStatusCode()).body(response.getBody());
-        }
+        return relay(keycloakAdminClient.exchange(registerUri, HttpMethod.GET, null));
     }
 
     @PostMapping(value = "/login", consumes = MediaType.APPLICATION_FORM_URLENCODED_VALUE)
@@ -65,8 +56,6 @@ public class SecurityController {
         String username = loginRequest.get("username");
         String password = loginRequest.get("password");
 
-        RestTemplate restTemplate = new RestTemplate();
-
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
 
@@ -80,179 +69,54 @@ public class SecurityController {
         HttpEntity<MultiValueMap<String, String>> request = new HttpEntity<>(body, headers);
 
         ResponseEntity<String> response = restTemplate.postForEntity(tokenUri, request, String.class);
-
-        if (response.getStatusCode() == HttpStatus.OK) {
-            return ResponseEntity.ok(response.getBody());
-        } else {
-            return ResponseEntity.status(response.getStatusCode()).body(response.getBody());
-        }
+        return relay(response);
     }
 
     @PostMapping(value = "/register", consumes = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<String> register(@RequestBody Map<String, Object> registerRequest) {
-        RestTemplate restTemplate = new RestTemplate();
-        String accessToken = getCurrentAccessToken();
-
         // Forward the register request to Keycloak
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setBearerAuth(accessToken);
-
-        HttpEntity<Map<String, Object>> request = new HttpEntity<>(registerRequest, headers);
-        ResponseEntity<String> response = restTemplate.postForEntity(registerUri, request, String.class);
+        ResponseEntity<String> response = keycloakAdminClient.exchange(registerUri, HttpMethod.POST, registerRequest);
 
         if (response.getStatusCode() == HttpStatus.UNAUTHORIZED) {
-            // Obtain a new bearer token
-            accessToken = obtainNewAccessToken();
-            headers.setBearerAuth(accessToken);
-            request = new HttpEntity<>(registerRequest, headers);
-            response = restTemplate.postForEntity(registerUri, request, String.class);
-        }
-
-        if (response.getStatusCode() == HttpStatus.OK) {
-            return ResponseEntity.ok(response.getBody());
-        }
-        else if (response.getStatusCode() == HttpStatus.UNAUTHORIZED) {
+            // Still rejected with a fresh token; the service account itself is misconfigured
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response.getBody());
-        } else {
-            return ResponseEntity.status(response.getStatusCode()).body(response.getBody());
-        }
-    }
-
-    private String getCurrentAccessToken() {
-        if (clientToken == null) {
-            return obtainNewAccessToken();
         }
-        return clientToken;
-    }
-
-    private String obtainNewAccessToken() {
-        RestTemplate restTemplate = new RestTemplate();
-
-        HttpHeaders tokenHeaders = new HttpHeaders();
-        tokenHeaders.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
-
-        MultiValueMap<String, String> tokenBody = new LinkedMultiValueMap<>();
-        tokenBody.add("client_id", clientId);
-        tokenBody.add("client_secret", clientSecret);
-        tokenBody.add("grant_type", "client_credentials");
-
-        HttpEntity<MultiValueMap<String, String>> tokenRequest = new HttpEntity<>(tokenBody, tokenHeaders);
-        ResponseEntity<Map> tokenResponse = restTemplate.postForEntity(tokenUri, tokenRequest, Map.class);
-
-        if (tokenResponse.getStatusCode() != HttpStatus.OK) {
-            throw new RuntimeException("Failed to obtain access token");
-        }
-        clientToken = (String) tokenResponse.getBody().get("access_token");
-        return clientToken;
+        return relay(response);
     }
 
     @PutMapping("/update/{id}")
     public ResponseEntity<String> updateUser(@PathVariable String id, @RequestBody Map<String, Object> updateRequest) {
-        RestTemplate restTemplate = new RestTemplate();
-        String accessToken = getCurrentAccessToken();
-
         // Forward the update request to Keycloak
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setBearerAuth(accessToken);
-
-        HttpEntity<Map<String, Object>> request = new HttpEntity<>(updateRequest, headers);
         String updateUri = registerUri + "/" + id;
-        ResponseEntity<String> response = restTemplate.exchange(updateUri, HttpMethod.PUT, request, String.class);
-
-        if (response.getStatusCode() == HttpStatus.UNAUTHORIZED) {
-            // Obtain a new bearer token
-            accessToken = obtainNewAccessToken();
-            headers.setBearerAuth(accessToken);
-            request = new HttpEntity<>(updateRequest, headers);
-            response = restTemplate.exchange(updateUri, HttpMethod.PUT, request, String.class);
-        }
-
-        if (response.getStatusCode() == HttpStatus.OK) {
-            return ResponseEntity.ok(response.getBody());
-        } else {
-            return ResponseEntity.status(response.getStatusCode()).body(response.getBody());
-        }
+        ResponseEntity<String> response = keycloakAdminClient.exchange(updateUri, HttpMethod.PUT, updateRequest);
+        keycloakUserCache.invalidateUser(id);
+        return relay(response);
     }
 
     @GetMapping("/managers")
     // get users with manager role. http://localhost:9090/admin/realms/Delphi/roles/manager/users
     public ResponseEntity<String> getManagers() {
-        RestTemplate restTemplate = new RestTemplate();
-        String accessToken = getCurrentAccessToken();
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setBearerAuth(accessToken);
-
-        HttpEntity<String> request = new HttpEntity<>(headers);
         String managerRolesURI = adminUri + "/roles/manager/users";
-        ResponseEntity<String> response = restTemplate.exchange(managerRolesURI, HttpMethod.GET, request, String.class);
-
-        if (response.getStatusCode() == HttpStatus.UNAUTHORIZED) {
-            // Obtain a new bearer token
-            accessToken = obtainNewAccessToken();
-            headers.setBearerAuth(accessToken);
-            request = new HttpEntity<>(headers);
-            response = restTemplate.exchange(managerRolesURI, HttpMethod.GET, request, String.class);
-        }
-
-        if (response.getStatusCode() == HttpStatus.OK) {
-            return ResponseEntity.ok(response.getBody());
-        } else {
-            return ResponseEntity.status(response.getStatusCode()).body(response.getBody());
-        }
+        return relay(keycloakAdminClient.exchange(managerRolesURI, HttpMethod.GET, null));
     }
 
     @GetMapping("/name/{id}")
     public ResponseEntity<String> getUserName(@PathVariable String id) {
-        RestTemplate restTemplate = new RestTemplate();
-        String accessToken = getCurrentAccessToken();
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setBearerAuth(accessToken);
-
-        HttpEntity<String> request = new HttpEntity<>(headers);
-        String userURI = registerUri + "/" + id;
-        ResponseEntity<String> response = restTemplate.exchange(userURI, HttpMethod.GET, request, String.class);
-
-        if (response.getStatusCode() == HttpStatus.UNAUTHORIZED) {
-            // Obtain a new bearer token
-            accessToken = obtainNewAccessToken();
-            headers.setBearerAuth(accessToken);
-            request = new HttpEntity<>(headers);
-            response = restTemplate.exchange(userURI, HttpMethod.GET, request, String.class);
-        }
+        return relay(keycloakUserCache.getUser(id));
+    }
 
-        if (response.getStatusCode() == HttpStatus.OK) {
-            return ResponseEntity.ok(response.getBody());
-        } else {
-            return ResponseEntity.status(response.getStatusCode()).body(response.getBody());
+    // Names and manager flags for up to MAX_BATCH_SIZE users at once, keyed by user id; unknown ids are left out
+    @PostMapping("/users/batch")
+    public ResponseEntity<Map<String, Map<String, Object>>> getUsersBatch(@RequestBody List<String> ids) {
+        if (ids.size() > MAX_BATCH_SIZE) {
+            return ResponseEntity.badRequest().build();
         }
+        return ResponseEntity.ok(keycloakUserCache.getUsers(ids));
     }
 
     @GetMapping("/manager/{id}")
     public ResponseEntity<Boolean> isManager(@PathVariable String id) {
-        RestTemplate restTemplate = new RestTemplate();
-        String accessToken = getCurrentAccessToken();
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setBearerAuth(accessToken);
-
-        HttpEntity<String> request = new HttpEntity<>(headers);
-        String managerRolesURI = registerUri + "/" + id + "/role-mappings/realm";
-        ResponseEntity<String> response = restTemplate.exchange(managerRolesURI, HttpMethod.GET, request, String.class);
-
-        if (response.getStatusCode() == HttpStatus.UNAUTHORIZED) {
-            // Obtain a new bearer token
-            accessToken = obtainNewAccessToken();
-            headers.setBearerAuth(accessToken);
-            request = new HttpEntity<>(headers);
-            response = restTemplate.exchange(managerRolesURI, HttpMethod.GET, request, String.class);
-        }
+        ResponseEntity<String> response = keycloakUserCache.getRealmRoles(id);
 
         if (response.getStatusCode() == HttpStatus.OK) {
             return ResponseEntity.ok(Objects.requireNonNull(response.getBody()).contains("manager"));
@@ -263,57 +127,21 @@ public class SecurityController {
 
     @PostMapping("/manager/{id}")
     public ResponseEntity<String> deleteUser(@PathVariable String id) {
-        RestTemplate restTemplate = new RestTemplate();
-        String accessToken = getCurrentAccessToken();
-
-        // Forward the delete request to Keycloak
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setBearerAuth(accessToken);
-
-        String role = "[{\"id\":\"c301a96d-7994-49cc-bbbb-f2acf665a3b2\",\"name\":\"manager\"}]";
-        HttpEntity<String> request = new HttpEntity<>(role, headers);
         String managerRolesURI = registerUri + "/" + id + "/role-mappings/realm";
-        ResponseEntity<String> response = restTemplate.exchange(managerRolesURI, HttpMethod.POST, request, String.class);
-
-        if (response.getStatusCode() == HttpStatus.UNAUTHORIZED) {
-            // Obtain a new bearer token
-            accessToken = obtainNewAccessToken();
-            headers.setBearerAuth(accessToken);
-            request = new HttpEntity<>(role, headers);
-            response = restTemplate.exchange(managerRolesURI, HttpMethod.POST, request, String.class);
-        }
-
-        if (response.getStatusCode() == HttpStatus.OK) {
-            return ResponseEntity.ok(response.getBody());
-        } else {
-            return ResponseEntity.status(response.getStatusCode()).body(response.getBody());
-        }
+        ResponseEntity<String> response = keycloakAdminClient.exchange(managerRolesURI, HttpMethod.POST, MANAGER_ROLE);
+        keycloakUserCache.invalidateRoles(id);
+        return relay(response);
     }
 
     @DeleteMapping("/manager/{id}")
     public ResponseEntity<String> removeManagerRole(@PathVariable String id) {
-        RestTemplate restTemplate = new RestTemplate();
-        String accessToken = getCurrentAccessToken();
-
-        // Forward the delete request to Keycloak
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setBearerAuth(accessToken);
-
-        String role = "[{\"id\":\"c301a96d-7994-49cc-bbbb-f2acf665a3b2\",\"name\":\"manager\"}]";
-        HttpEntity<String> request = new HttpEntity<>(role, headers);
         String managerRolesURI = registerUri + "/" + id + "/role-mappings/realm";
-        ResponseEntity<String> response = restTemplate.exchange(managerRolesURI, HttpMethod.DELETE, request, String.class);
-
-        if (response.getStatusCode() == HttpStatus.UNAUTHORIZED) {
-            // Obtain a new bearer token
-            accessToken = obtainNewAccessToken();
-            headers.setBearerAuth(accessToken);
-            request = new HttpEntity<>(role, headers);
-            response = restTemplate.exchange(managerRolesURI, HttpMethod.DELETE, request, String.class);
-        }
+        ResponseEntity<String> response = keycloakAdminClient.exchange(managerRolesURI, HttpMethod.DELETE, MANAGER_ROLE);
+        keycloakUserCache.invalidateRoles(id);
+        return relay(response);
+    }
 
+    private static ResponseEntity<String> relay(ResponseEntity<String> response) {
         if (response.getStatusCode() == HttpStatus.OK) {
             return ResponseEntity.ok(response.getBody());
         } else {
@@ -321,4 +149,4 @@ public class SecurityController {
         }
     }
 
-}
\ No newline at end of file
+}
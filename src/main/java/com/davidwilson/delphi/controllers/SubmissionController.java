@@ -1,25 +1,35 @@
 package com.davidwilson.delphi.controllers;
 
+import com.davidwilson.delphi.configs.HttpClientMetrics;
 import com.davidwilson.delphi.entities.Submissions;
+import com.davidwilson.delphi.repositories.SubmissionCursor;
 import com.davidwilson.delphi.repositories.SubmissionRepository;
+import com.davidwilson.delphi.repositories.SubmissionSummary;
 import com.davidwilson.delphi.entities.SubmissionReviews;
 import com.davidwilson.delphi.repositories.SubmissionReviewsRepository;
+import com.davidwilson.delphi.sandbox.SandboxPool;
+import com.davidwilson.delphi.services.AnalysisQueueService;
+import com.davidwilson.delphi.services.ExecutionQueueService;
+import com.davidwilson.delphi.services.FeedbackStreamService;
+import com.davidwilson.delphi.services.FileUploadService;
+import com.davidwilson.delphi.services.GradingCacheService;
+import com.davidwilson.delphi.services.LlmResponseCache;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import org.springframework.core.io.FileSystemResource;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.logging.Logger;
@@ -27,33 +37,70 @@ import java.util.logging.Logger;
 @RestController
 @RequestMapping("/api/submissions")
 public class SubmissionController {
-    @Value("${file.upload-dir}")
-    private String uploadDir;
-
     @Autowired
     private SubmissionRepository submissionRepository;
 
     @Autowired
     private SubmissionReviewsRepository submissionReviewsRepository;
 
+    @Autowired
+    private ExecutionQueueService executionQueueService;
+
+    @Autowired
+    private SandboxPool sandboxPool;
+
+    @Autowired
+    private GradingCacheService gradingCacheService;
+
+    @Autowired
+    private AnalysisQueueService analysisQueueService;
+
+    @Autowired
+    private HttpClientMetrics httpClientMetrics;
+
+    @Autowired
+    private FileUploadService fileUploadService;
+
+    @Autowired
+    private LlmResponseCache llmResponseCache;
+
+    @Autowired
+    private FeedbackStreamService feedbackStreamService;
+
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    static final int MAX_PAGE_SIZE = 500;
+
     private static Logger logger = Logger.getLogger(SubmissionController.class.getName());
 
+    // Newest first, in pages of at most limit; pass the X-Next-Cursor header back as cursor for the next page
     @GetMapping("/user/{userId}")
-    public ResponseEntity<List<Submissions>> getSubmissionsForUser(
+    public ResponseEntity<List<SubmissionSummary>> getSubmissionsForUser(
             @PathVariable String userId,
-            @RequestParam(required = false) Boolean withReviewRequests) {
-        List<Submissions> submissions = submissionRepository.findByUserId(userId);
+            @RequestParam(required = false) Boolean withReviewRequests,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "100") int limit) {
+        Limit pageLimit = Limit.of(Math.min(Math.max(limit, 1), MAX_PAGE_SIZE));
+        boolean reviewRequested = Boolean.TRUE.equals(withReviewRequests);
+        List<SubmissionSummary> submissions;
+        try {
+            if (cursor == null) {
+                submissions = submissionRepository.findSummariesByUserId(userId, reviewRequested, pageLimit);
+            } else {
+                SubmissionCursor after = SubmissionCursor.parse(cursor);
+                submissions = submissionRepository.findSummariesByUserIdAfter(userId, reviewRequested, after.submittedAt(), after.id(), pageLimit);
+            }
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
         if (submissions.isEmpty()) {
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
         }
 
-        if (Boolean.TRUE.equals(withReviewRequests)) {
-            submissions.removeIf(submission -> !submissionReviewsRepository.existsBySubmissionId(submission.getId().toString()));
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (submissions.size() == pageLimit.max()) {
+            response.header(NEXT_CURSOR_HEADER, submissions.get(submissions.size() - 1).cursor().encode());
         }
-
-        // Sort by time
-        submissions.sort((o1, o2) -> o2.getTimestamp().compareTo(o1.getTimestamp()));
-        return new ResponseEntity<>(submissions, HttpStatus.OK);
+        return response.body(submissions);
     }
 
     @GetMapping("/{id}")
@@ -63,29 +110,76 @@ public class SubmissionController {
                 .orElseGet(() -> new ResponseEntity<>(HttpStatus.NOT_FOUND));
     }
 
-    @GetMapping("/download/{id}")
-    public ResponseEntity<byte[]> downloadSubmission(@PathVariable UUID id) {
+    @GetMapping("/queue")
+    public ResponseEntity<Map<String, Object>> getQueueStatus() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("queueDepth", executionQueueService.getQueueDepth());
+        response.put("workers", executionQueueService.getWorkers());
+        response.put("averageGradingSeconds", executionQueueService.getAverageGradingMillis() / 1000.0);
+        response.put("idleSandboxes", sandboxPool.getIdleCount());
+        response.put("totalSandboxes", sandboxPool.getTotalCount());
+        response.put("maxSandboxAcquireMillis", sandboxPool.getMaxAcquireMillis());
+        response.put("gradingCacheHits", gradingCacheService.getHits());
+        response.put("gradingCacheMisses", gradingCacheService.getMisses());
+        response.put("pendingAnalyses", analysisQueueService.getPendingCount());
+        response.put("queuedAnalyses", analysisQueueService.getQueuedCount());
+        response.put("httpClients", httpClientMetrics.snapshot());
+        response.put("llmCache", llmResponseCache.snapshot());
+        response.put("feedbackStreams", feedbackStreamService.getActiveCount());
+        return new ResponseEntity<>(response, HttpStatus.OK);
+    }
+
+    @GetMapping("/{id}/queue")
+    public ResponseEntity<Map<String, Object>> getQueuePosition(@PathVariable UUID id) {
         Optional<Submissions> submission = submissionRepository.findById(id);
-        String fileName = submission.map(Submissions::getFileName).orElse(null);
+        if (submission.isEmpty()) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+
+        int position = executionQueueService.getPosition(submission.get());
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", submission.get().getStatus());
+        response.put("aiStatus", submission.get().getAiStatus());
+        response.put("queueDepth", executionQueueService.getQueueDepth());
+        response.put("position", position);
+        response.put("estimatedWaitSeconds", executionQueueService.estimateWaitMillis(position) / 1000);
+        return new ResponseEntity<>(response, HttpStatus.OK);
+    }
+
+    // AI feedback as Server-Sent Events: "snapshot" and "delta" while the model writes, then "done" with the saved text
+    @GetMapping(value = "/{id}/feedback/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamFeedback(@PathVariable UUID id) {
+        if (!submissionRepository.existsById(id)) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        return ResponseEntity.ok(feedbackStreamService.subscribe(id));
+    }
 
-        if (fileName == null) {
+    @GetMapping("/download/{id}")
+    public ResponseEntity<Resource> downloadSubmission(@PathVariable UUID id) {
+        Optional<Submissions> submission = submissionRepository.findById(id);
+        if (submission.isEmpty() || submission.get().getFileName() == null) {
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
 
         try {
-            Path filePath = Paths.get(uploadDir).resolve(fileName).normalize();
-            Resource resource = new UrlResource(filePath.toUri());
+            Resource resource = new FileSystemResource(fileUploadService.locate(submission.get()));
 
             if (!resource.exists() || !resource.isReadable()) {
                 return new ResponseEntity<>(HttpStatus.NOT_FOUND);
             }
 
-            byte[] fileContent = Files.readAllBytes(filePath);
-
+            // The file is streamed from disk in small buffers. Spring answers Range requests from the
+            // Resource body with 206, and If-None-Match/If-Modified-Since with 304 from the headers below.
+            long lastModified = resource.lastModified();
             return ResponseEntity.ok()
                     .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + resource.getFilename() + "\"")
-                    .body(fileContent);
+                    .header(HttpHeaders.CONTENT_DISPOSITION,
+                            ContentDisposition.attachment().filename(submission.get().getFileName()).build().toString())
+                    .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                    .eTag(Long.toHexString(resource.contentLength()) + "-" + Long.toHexString(lastModified))
+                    .lastModified(lastModified)
+                    .body(resource);
         } catch (Exception e) {
             e.printStackTrace();
             return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
@@ -94,23 +188,20 @@ public class SubmissionController {
 
     @GetMapping("/reviewer/{id}")
     public ResponseEntity<List<Submissions>> getSubmissionsForReviewer(@PathVariable String id) {
-        List<SubmissionReviews> submissionReviews = submissionReviewsRepository.findByReviewerId(id);
-        List<Submissions> submissions = new ArrayList<>();
-        for (SubmissionReviews review : submissionReviews) {
-            Optional<Submissions> submission = submissionRepository.findById(UUID.fromString(review.getSubmissionId()));
-            submission.ifPresent(submissions::add);
-        }
-
-        return new ResponseEntity<>(submissions, HttpStatus.OK);
+        return new ResponseEntity<>(submissionRepository.findByReviewerId(id), HttpStatus.OK);
     }
 
     @PostMapping("/{id}/addreviewer")
-    public ResponseEntity<String> assignSubmissionReviewer(@RequestParam String reviewerId , @PathVariable String id) {
+    public ResponseEntity<String> assignSubmissionReviewer(@RequestParam String reviewerId , @PathVariable UUID id) {
         if (submissionReviewsRepository.existsBySubmissionId(id)) {
             return new ResponseEntity<>("Reviewer already assigned", HttpStatus.BAD_REQUEST);
         }
+        Optional<Submissions> submission = submissionRepository.findById(id);
+        if (submission.isEmpty()) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
         SubmissionReviews submissionReviews = new SubmissionReviews();
-        submissionReviews.setSubmissionId(id);
+        submissionReviews.setSubmission(submission.get());
         submissionReviews.setReviewerId(reviewerId);
         submissionReviews.setStatus("Pending");
         submissionReviews.setCreatedAt(String.valueOf(System.currentTimeMillis()));
@@ -0,0 +1,43 @@
+package com.davidwilson.delphi.entities;
+
+import jakarta.persistence.*;
+
+import java.sql.Timestamp;
+
+/**
+ * One stored upload, named by the SHA-256 of its bytes. Identical archives share a blob; refCount is
+ * the number of submissions pointing at it, and the file is deleted when the last one lets go.
+ */
+@Entity
+@Table(name = "blobs")
+public class Blob {
+
+    @Id
+    @Column(name = "digest", length = 64)
+    private String digest;
+
+    @Column(name = "size", nullable = false)
+    private long size;
+
+    @Column(name = "ref_count", nullable = false)
+    private int refCount;
+
+    @Column(name = "created_at")
+    private Timestamp createdAt;
+
+    public String getDigest() {
+        return digest;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getRefCount() {
+        return refCount;
+    }
+
+    public Timestamp getCreatedAt() {
+        return createdAt;
+    }
+}
@@ -0,0 +1,74 @@
+package com.davidwilson.delphi.entities;
+
+import jakarta.persistence.*;
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Points at each user's most recent finished submission for an assignment. Maintained when a
+ * submission finishes grading, so listing an assignment's latest attempts is a single indexed scan.
+ */
+@Entity
+@IdClass(LatestSubmission.Key.class)
+@Table(name = "latest_submissions", indexes = {
+        @Index(name = "idx_latest_submissions_assignment_submitted_at", columnList = "assignment_id, submitted_at")
+})
+public class LatestSubmission {
+
+    @Id
+    @Column(name = "assignment_id")
+    private UUID assignmentId;
+
+    @Id
+    @Column(name = "user_id")
+    private String userId;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "submission_id", nullable = false)
+    private Submissions submission;
+
+    @Column(name = "submitted_at", nullable = false)
+    private Timestamp submittedAt;
+
+    public UUID getAssignmentId() {
+        return assignmentId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public Submissions getSubmission() {
+        return submission;
+    }
+
+    public Timestamp getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public static class Key implements Serializable {
+        private UUID assignmentId;
+        private String userId;
+
+        public Key() {
+        }
+
+        public Key(UUID assignmentId, String userId) {
+            this.assignmentId = assignmentId;
+            this.userId = userId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key key && Objects.equals(assignmentId, key.assignmentId) && Objects.equals(userId, key.userId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(assignmentId, userId);
+        }
+    }
+}
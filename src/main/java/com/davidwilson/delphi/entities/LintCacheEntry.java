@@ -0,0 +1,109 @@
+package com.davidwilson.delphi.entities;
+
+import jakarta.persistence.*;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * Pylint's messages for one file, keyed by the file's content and name under a given pylint
+ * configuration. The name is part of the key because module-level checks (invalid-name and
+ * friends) depend on it, and so is the project's module set, because import-error, no-member and
+ * cyclic-import depend on the other modules.
+ */
+@Entity
+@Table(name = "lint_cache", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_lint_cache_file", columnNames = {"file_hash", "file_name", "config_version", "project_hash"})
+})
+public class LintCacheEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private UUID id;
+
+    @Column(name = "file_hash", length = 64, nullable = false)
+    private String fileHash;
+
+    @Column(name = "file_name", nullable = false)
+    private String fileName;
+
+    @Column(name = "config_version", nullable = false)
+    private String configVersion;
+
+    // Null only on entries cached before the module set was part of the key; those never match again
+    @Column(name = "project_hash", length = 64)
+    private String projectHash;
+
+    // JSON array of SandboxRecord.LintMessage
+    @Column(columnDefinition = "TEXT")
+    private String messages;
+
+    private Integer statements;
+
+    @Column(name = "created_at")
+    private Timestamp createdAt;
+
+    public UUID getId() {
+        return id;
+    }
+
+    public void setId(UUID id) {
+        this.id = id;
+    }
+
+    public String getFileHash() {
+        return fileHash;
+    }
+
+    public void setFileHash(String fileHash) {
+        this.fileHash = fileHash;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getConfigVersion() {
+        return configVersion;
+    }
+
+    public void setConfigVersion(String configVersion) {
+        this.configVersion = configVersion;
+    }
+
+    public String getProjectHash() {
+        return projectHash;
+    }
+
+    public void setProjectHash(String projectHash) {
+        this.projectHash = projectHash;
+    }
+
+    public String getMessages() {
+        return messages;
+    }
+
+    public void setMessages(String messages) {
+        this.messages = messages;
+    }
+
+    public Integer getStatements() {
+        return statements;
+    }
+
+    public void setStatements(Integer statements) {
+        this.statements = statements;
+    }
+
+    public Timestamp getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Timestamp createdAt) {
+        this.createdAt = createdAt;
+    }
+}
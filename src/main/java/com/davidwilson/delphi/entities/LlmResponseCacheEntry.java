@@ -0,0 +1,74 @@
+package com.davidwilson.delphi.entities;
+
+import jakarta.persistence.*;
+
+import java.sql.Timestamp;
+
+/**
+ * A chat completion stored under the hash of everything that determined it: model, system prompt,
+ * temperature, max_tokens and the normalised user prompt. See LlmResponseCache.
+ */
+@Entity
+@Table(name = "llm_response_cache", indexes = {
+        @Index(name = "idx_llm_response_cache_last_hit_at", columnList = "last_hit_at")
+})
+public class LlmResponseCacheEntry {
+
+    @Id
+    @Column(name = "cache_key", length = 64)
+    private String cacheKey;
+
+    @Column(name = "model")
+    private String model;
+
+    @Column(name = "response", columnDefinition = "TEXT", nullable = false)
+    private String response;
+
+    // Tokens the original call consumed, i.e. what each hit saves
+    @Column(name = "total_tokens")
+    private Integer totalTokens;
+
+    @Column(name = "size_bytes", nullable = false)
+    private int sizeBytes;
+
+    @Column(name = "hit_count", nullable = false)
+    private int hitCount;
+
+    @Column(name = "created_at", nullable = false)
+    private Timestamp createdAt;
+
+    @Column(name = "last_hit_at", nullable = false)
+    private Timestamp lastHitAt;
+
+    public String getCacheKey() {
+        return cacheKey;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public String getResponse() {
+        return response;
+    }
+
+    public Integer getTotalTokens() {
+        return totalTokens;
+    }
+
+    public int getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    public Timestamp getCreatedAt() {
+        return createdAt;
+    }
+
+    public Timestamp getLastHitAt() {
+        return lastHitAt;
+    }
+}
@@ -1,19 +1,22 @@
 package com.davidwilson.delphi.entities;
 
-import jakarta.annotation.Nullable;
 import jakarta.persistence.*;
 
 import java.util.UUID;
 
 @Entity
-@Table(name = "submission_reviews")
+@Table(name = "submission_reviews", indexes = {
+        @Index(name = "idx_submission_reviews_reviewer_uid", columnList = "reviewer_uid"),
+        @Index(name = "idx_submission_reviews_submission_id", columnList = "submission_id")
+})
 public class SubmissionReviews {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private UUID id;
 
-    @Column(name = "submission_id")
-    private String submissionId;
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "submission_id", foreignKey = @ForeignKey(name = "fk_submission_reviews_submission"))
+    private Submissions submission;
 
     @Column(name = "reviewer_uid")
     private String reviewerId;
@@ -32,12 +35,12 @@ public class SubmissionReviews {
         this.id = id;
     }
 
-    public String getSubmissionId() {
-        return submissionId;
+    public Submissions getSubmission() {
+        return submission;
     }
 
-    public void setSubmissionId(String submissionId) {
-        this.submissionId = submissionId;
+    public void setSubmission(Submissions submission) {
+        this.submission = submission;
     }
 
     public String getReviewerId() {
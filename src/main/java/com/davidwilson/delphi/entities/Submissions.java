@@ -1,12 +1,19 @@
 package com.davidwilson.delphi.entities;
 
+import java.sql.Timestamp;
 import java.util.UUID;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.annotation.Nullable;
 import jakarta.persistence.*;
 
 @Entity
-@Table(name = "submissions")
+@Table(name = "submissions", indexes = {
+        @Index(name = "idx_submissions_status_submitted_at", columnList = "status, submitted_at"),
+        @Index(name = "idx_submissions_grading_key", columnList = "grading_key"),
+        @Index(name = "idx_submissions_ai_status", columnList = "ai_status, submitted_at"),
+        @Index(name = "idx_submissions_user_submitted_at", columnList = "user_id, submitted_at")
+})
 public class Submissions {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -40,6 +47,42 @@ public class Submissions {
 
     private String status;
 
+    // Queue order; the grading queue claims the oldest pending submission first
+    @Column(name = "submitted_at")
+    private Timestamp submittedAt;
+
+    // Lease columns are only meaningful while status is "Running"
+    @JsonIgnore
+    @Column(name = "lease_owner")
+    private String leaseOwner;
+
+    @JsonIgnore
+    @Column(name = "lease_expires_at")
+    private Timestamp leaseExpiresAt;
+
+    @JsonIgnore
+    @Column(name = "attempts")
+    private Integer attempts = 0;
+
+    // SHA-256 of the uploaded zip, which is also its name in the BlobStore
+    @JsonIgnore
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    // Hash of everything that determines the result; identical keys grade identically, see GradingCacheService
+    @JsonIgnore
+    @Column(name = "grading_key", length = 64)
+    private String gradingKey;
+
+    // AI feedback is produced after grading completes: Pending, Running, Completed, Failed or Disabled
+    @Column(name = "ai_status")
+    private String aiStatus;
+
+    // When the AI stage last changed state; a Running row that is too old belongs to a crashed instance
+    @JsonIgnore
+    @Column(name = "ai_updated_at")
+    private Timestamp aiUpdatedAt;
+
     @ManyToOne
     @JoinColumn(name = "assignment_id", nullable = false)
     private Assignment assignment;
@@ -135,6 +178,70 @@ public class Submissions {
         this.status = status;
     }
 
+    public Timestamp getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public void setSubmittedAt(Timestamp submittedAt) {
+        this.submittedAt = submittedAt;
+    }
+
+    public String getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    public void setLeaseOwner(String leaseOwner) {
+        this.leaseOwner = leaseOwner;
+    }
+
+    public Timestamp getLeaseExpiresAt() {
+        return leaseExpiresAt;
+    }
+
+    public void setLeaseExpiresAt(Timestamp leaseExpiresAt) {
+        this.leaseExpiresAt = leaseExpiresAt;
+    }
+
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(Integer attempts) {
+        this.attempts = attempts;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public String getGradingKey() {
+        return gradingKey;
+    }
+
+    public void setGradingKey(String gradingKey) {
+        this.gradingKey = gradingKey;
+    }
+
+    public String getAiStatus() {
+        return aiStatus;
+    }
+
+    public void setAiStatus(String aiStatus) {
+        this.aiStatus = aiStatus;
+    }
+
+    public Timestamp getAiUpdatedAt() {
+        return aiUpdatedAt;
+    }
+
+    public void setAiUpdatedAt(Timestamp aiUpdatedAt) {
+        this.aiUpdatedAt = aiUpdatedAt;
+    }
+
     public Assignment getAssignment() { return assignment; }
 
     public void setAssignment(Assignment assignment) { this.assignment = assignment; }
@@ -0,0 +1,35 @@
+package com.davidwilson.delphi.repositories;
+
+import com.davidwilson.delphi.entities.Blob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface BlobRepository extends JpaRepository<Blob, String> {
+
+    // Waits on a concurrent release of the same digest, so the file is never deleted after this returns
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO blobs (digest, size, ref_count, created_at) VALUES (:digest, :size, 1, now()) " +
+            "ON CONFLICT (digest) DO UPDATE SET ref_count = blobs.ref_count + 1", nativeQuery = true)
+    int acquire(@Param("digest") String digest, @Param("size") long size);
+
+    // Only for a digest the caller already holds a reference to, so the row cannot be deleted meanwhile
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE blobs SET ref_count = ref_count + 1 WHERE digest = :digest AND ref_count > 0", nativeQuery = true)
+    int retain(@Param("digest") String digest);
+
+    // BlobStore.release runs these in one transaction with the file deletion
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE blobs SET ref_count = ref_count - 1 WHERE digest = :digest AND ref_count > 0", nativeQuery = true)
+    int decrement(@Param("digest") String digest);
+
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM blobs WHERE digest = :digest AND ref_count = 0", nativeQuery = true)
+    int deleteIfUnreferenced(@Param("digest") String digest);
+}
@@ -0,0 +1,54 @@
+package com.davidwilson.delphi.repositories;
+
+import com.davidwilson.delphi.entities.LatestSubmission;
+import com.davidwilson.delphi.entities.Submissions;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.UUID;
+
+public interface LatestSubmissionRepository extends JpaRepository<LatestSubmission, LatestSubmission.Key> {
+
+    @Query(value = "SELECT s FROM LatestSubmission l JOIN l.submission s WHERE l.assignmentId = :assignmentId ORDER BY l.submittedAt DESC",
+            countQuery = "SELECT COUNT(l) FROM LatestSubmission l WHERE l.assignmentId = :assignmentId")
+    Page<Submissions> findLatestForAssignment(@Param("assignmentId") UUID assignmentId, Pageable pageable);
+
+    @Query(SubmissionSummary.SELECT + "FROM LatestSubmission l JOIN l.submission s WHERE l.assignmentId = :assignmentId " +
+            "ORDER BY l.submittedAt DESC, s.id DESC")
+    List<SubmissionSummary> findLatestSummaries(@Param("assignmentId") UUID assignmentId, Limit limit);
+
+    @Query(SubmissionSummary.SELECT + "FROM LatestSubmission l JOIN l.submission s WHERE l.assignmentId = :assignmentId " +
+            "AND (l.submittedAt < :submittedAt OR (l.submittedAt = :submittedAt AND s.id < :id)) " +
+            "ORDER BY l.submittedAt DESC, s.id DESC")
+    List<SubmissionSummary> findLatestSummariesAfter(@Param("assignmentId") UUID assignmentId, @Param("submittedAt") Timestamp submittedAt,
+                                                     @Param("id") UUID id, Limit limit);
+
+    // Never moves the pointer backwards, so a retried older submission finishing late cannot replace a newer one
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO latest_submissions (assignment_id, user_id, submission_id, submitted_at) " +
+            "VALUES (:assignmentId, :userId, :submissionId, :submittedAt) " +
+            "ON CONFLICT (assignment_id, user_id) DO UPDATE SET submission_id = EXCLUDED.submission_id, submitted_at = EXCLUDED.submitted_at " +
+            "WHERE latest_submissions.submitted_at <= EXCLUDED.submitted_at", nativeQuery = true)
+    int upsert(@Param("assignmentId") UUID assignmentId, @Param("userId") String userId,
+               @Param("submissionId") UUID submissionId, @Param("submittedAt") Timestamp submittedAt);
+
+    // One-off fill from submissions graded before the table existed; rows older than submitted_at use the epoch-millis timestamp
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO latest_submissions (assignment_id, user_id, submission_id, submitted_at) " +
+            "SELECT DISTINCT ON (assignment_id, user_id) assignment_id, user_id, id, " +
+            "COALESCE(submitted_at, to_timestamp(CAST(\"timestamp\" AS BIGINT) / 1000.0)) " +
+            "FROM submissions WHERE status IN ('Completed', 'Failed') AND user_id IS NOT NULL " +
+            "ORDER BY assignment_id, user_id, COALESCE(submitted_at, to_timestamp(CAST(\"timestamp\" AS BIGINT) / 1000.0)) DESC " +
+            "ON CONFLICT (assignment_id, user_id) DO NOTHING", nativeQuery = true)
+    int backfill();
+}
@@ -0,0 +1,15 @@
+package com.davidwilson.delphi.repositories;
+
+import com.davidwilson.delphi.entities.LintCacheEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+public interface LintCacheRepository extends JpaRepository<LintCacheEntry, UUID> {
+    List<LintCacheEntry> findByConfigVersionAndProjectHashAndFileHashIn(String configVersion, String projectHash,
+                                                                        Collection<String> fileHashes);
+    boolean existsByFileHashAndFileNameAndConfigVersionAndProjectHash(String fileHash, String fileName,
+                                                                      String configVersion, String projectHash);
+}
@@ -0,0 +1,47 @@
+package com.davidwilson.delphi.repositories;
+
+import com.davidwilson.delphi.entities.LlmResponseCacheEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.util.Optional;
+
+public interface LlmResponseCacheRepository extends JpaRepository<LlmResponseCacheEntry, String> {
+
+    @Query("SELECT e FROM LlmResponseCacheEntry e WHERE e.cacheKey = :cacheKey AND e.createdAt >= :notBefore")
+    Optional<LlmResponseCacheEntry> findFresh(@Param("cacheKey") String cacheKey, @Param("notBefore") Timestamp notBefore);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE LlmResponseCacheEntry e SET e.hitCount = e.hitCount + 1, e.lastHitAt = :now WHERE e.cacheKey = :cacheKey")
+    int recordHit(@Param("cacheKey") String cacheKey, @Param("now") Timestamp now);
+
+    // Replaces an expired entry under the same key; a concurrent insert of a fresh one wins
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO llm_response_cache (cache_key, model, response, total_tokens, size_bytes, hit_count, created_at, last_hit_at) " +
+            "VALUES (:cacheKey, :model, :response, :totalTokens, :sizeBytes, 0, :now, :now) " +
+            "ON CONFLICT (cache_key) DO UPDATE SET response = EXCLUDED.response, total_tokens = EXCLUDED.total_tokens, " +
+            "size_bytes = EXCLUDED.size_bytes, hit_count = 0, created_at = EXCLUDED.created_at, last_hit_at = EXCLUDED.last_hit_at " +
+            "WHERE llm_response_cache.created_at < :notBefore", nativeQuery = true)
+    int upsert(@Param("cacheKey") String cacheKey, @Param("model") String model, @Param("response") String response,
+               @Param("totalTokens") Integer totalTokens, @Param("sizeBytes") int sizeBytes,
+               @Param("now") Timestamp now, @Param("notBefore") Timestamp notBefore);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM LlmResponseCacheEntry e WHERE e.createdAt < :notBefore")
+    int deleteExpired(@Param("notBefore") Timestamp notBefore);
+
+    // Keeps the most recently used entries whose sizes add up to at most maxBytes
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM llm_response_cache WHERE cache_key IN (" +
+            "SELECT cache_key FROM (SELECT cache_key, SUM(size_bytes) OVER (ORDER BY last_hit_at DESC, cache_key) AS running " +
+            "FROM llm_response_cache) ranked WHERE running > :maxBytes)", nativeQuery = true)
+    int evictBeyond(@Param("maxBytes") long maxBytes);
+}
@@ -0,0 +1,24 @@
+package com.davidwilson.delphi.repositories;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * Keyset position in a list ordered by submitted_at then id, both descending. Passed to clients as an
+ * opaque string; the next page continues strictly after it, so rows inserted meanwhile never shift it.
+ */
+public record SubmissionCursor(Timestamp submittedAt, UUID id) {
+
+    public static SubmissionCursor parse(String value) {
+        int separator = value.indexOf('_');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Invalid cursor: " + value);
+        }
+        return new SubmissionCursor(new Timestamp(Long.parseLong(value.substring(0, separator))),
+                UUID.fromString(value.substring(separator + 1)));
+    }
+
+    public String encode() {
+        return submittedAt.getTime() + "_" + id;
+    }
+}
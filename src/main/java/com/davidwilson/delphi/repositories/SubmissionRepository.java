@@ -1,10 +1,16 @@
 package com.davidwilson.delphi.repositories;
 
 import com.davidwilson.delphi.entities.Submissions;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.Timestamp;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -17,7 +23,108 @@ public interface SubmissionRepository extends JpaRepository<Submissions, Long> {
     Optional<Submissions> findByTimestamp(String timestamp);
     Optional<Submissions> findByStatus(String status);
     List<Submissions> findByAssignmentId(UUID assignmentId);
+    long countByStatus(String status);
+    long countByAiStatus(String aiStatus);
+    Optional<Submissions> findFirstByGradingKeyAndStatusOrderBySubmittedAtDesc(String gradingKey, String status);
 
-    @Query("SELECT s FROM Submissions s WHERE s.assignment.id = :assignmentId AND s.timestamp = (SELECT MAX(s2.timestamp) FROM Submissions s2 WHERE s2.assignment.id = :assignmentId AND s2.userId = s.userId)")
-    List<Submissions> findLatestSubmissionsPerUserForAssignment(@Param("assignmentId") UUID assignmentId);
+    // With reviewRequested set, only submissions that have a review request. Rows without submitted_at
+    // cannot be placed in the keyset order; fillMissingSubmittedAt gives every one a value at startup
+    @Query(SubmissionSummary.SELECT + "FROM Submissions s WHERE s.userId = :userId AND s.submittedAt IS NOT NULL " +
+            "AND (:reviewRequested = false OR EXISTS (SELECT 1 FROM SubmissionReviews r WHERE r.submission = s)) " +
+            "ORDER BY s.submittedAt DESC, s.id DESC")
+    List<SubmissionSummary> findSummariesByUserId(@Param("userId") String userId, @Param("reviewRequested") boolean reviewRequested,
+                                                  Limit limit);
+
+    @Query(SubmissionSummary.SELECT + "FROM Submissions s WHERE s.userId = :userId AND s.submittedAt IS NOT NULL " +
+            "AND (:reviewRequested = false OR EXISTS (SELECT 1 FROM SubmissionReviews r WHERE r.submission = s)) " +
+            "AND (s.submittedAt < :submittedAt OR (s.submittedAt = :submittedAt AND s.id < :id)) " +
+            "ORDER BY s.submittedAt DESC, s.id DESC")
+    List<SubmissionSummary> findSummariesByUserIdAfter(@Param("userId") String userId, @Param("reviewRequested") boolean reviewRequested,
+                                                       @Param("submittedAt") Timestamp submittedAt, @Param("id") UUID id, Limit limit);
+
+    // Assignment and group are eager, so they are fetched in the same query rather than once per row
+    @Query("SELECT s FROM SubmissionReviews r JOIN r.submission s LEFT JOIN FETCH s.assignment a LEFT JOIN FETCH a.group " +
+            "WHERE r.reviewerId = :reviewerId ORDER BY s.submittedAt DESC")
+    List<Submissions> findByReviewerId(@Param("reviewerId") String reviewerId);
+
+    // Rows created before submitted_at existed only have the epoch-millis timestamp string; rows where
+    // that is missing or not a number sort as the oldest
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE submissions SET submitted_at = CASE WHEN \"timestamp\" ~ '^[0-9]+$' " +
+            "THEN to_timestamp(CAST(\"timestamp\" AS BIGINT) / 1000.0) ELSE to_timestamp(0) END " +
+            "WHERE submitted_at IS NULL", nativeQuery = true)
+    int fillMissingSubmittedAt();
+
+    // Must run inside a transaction: rows stay locked until the claim commits, and other instances skip them
+    @Query(value = "SELECT * FROM submissions WHERE status = 'Pending' ORDER BY submitted_at LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<Submissions> lockPendingSubmissions(@Param("limit") int limit);
+
+    @Query("SELECT COUNT(s) FROM Submissions s WHERE s.status = 'Pending' AND s.submittedAt < :submittedAt")
+    long countPendingSubmittedBefore(@Param("submittedAt") Timestamp submittedAt);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE Submissions s SET s.leaseExpiresAt = :expiresAt WHERE s.id IN :ids AND s.leaseOwner = :owner AND s.status = 'Running'")
+    int renewLeases(@Param("ids") Collection<UUID> ids, @Param("owner") String owner, @Param("expiresAt") Timestamp expiresAt);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE Submissions s SET s.status = 'Pending', s.leaseOwner = null, s.leaseExpiresAt = null " +
+            "WHERE s.status = 'Running' AND (s.leaseOwner = :owner OR s.leaseExpiresAt IS NULL OR s.leaseExpiresAt < :now) " +
+            "AND COALESCE(s.attempts, 0) < :maxAttempts")
+    int requeueOrphanedSubmissions(@Param("owner") String owner, @Param("now") Timestamp now, @Param("maxAttempts") int maxAttempts);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE Submissions s SET s.status = 'Failed', s.output = 'Grading was interrupted too many times.', " +
+            "s.leaseOwner = null, s.leaseExpiresAt = null " +
+            "WHERE s.status = 'Running' AND (s.leaseOwner = :owner OR s.leaseExpiresAt IS NULL OR s.leaseExpiresAt < :now) " +
+            "AND COALESCE(s.attempts, 0) >= :maxAttempts")
+    int failOrphanedSubmissions(@Param("owner") String owner, @Param("now") Timestamp now, @Param("maxAttempts") int maxAttempts);
+
+    // Fenced by the claim: once the lease has been taken over (new owner, or a new attempt by this one) nothing is written
+    @Transactional
+    @Modifying
+    @Query("UPDATE Submissions s SET s.status = :status, s.output = :output, s.lint_output = :lintOutput, " +
+            "s.testResults = :testResults, s.grade = :grade, s.runtime = :runtime, s.memory = :memory, " +
+            "s.gradingKey = :gradingKey, s.ai_output = :aiOutput, s.aiStatus = :aiStatus, s.aiUpdatedAt = :aiUpdatedAt, " +
+            "s.leaseOwner = null, s.leaseExpiresAt = null " +
+            "WHERE s.id = :id AND s.status = 'Running' AND s.leaseOwner = :owner AND s.attempts = :attempts")
+    int completeGrading(@Param("id") UUID id, @Param("owner") String owner, @Param("attempts") Integer attempts,
+                        @Param("status") String status, @Param("output") String output, @Param("lintOutput") String lintOutput,
+                        @Param("testResults") String testResults, @Param("grade") Double grade, @Param("runtime") Integer runtime,
+                        @Param("memory") Integer memory, @Param("gradingKey") String gradingKey, @Param("aiOutput") String aiOutput,
+                        @Param("aiStatus") String aiStatus, @Param("aiUpdatedAt") Timestamp aiUpdatedAt);
+
+    // Writes a claimed submission's grading result; false if this worker no longer holds the claim
+    default boolean completeGrading(Submissions submission) {
+        return completeGrading(submission.getId(), submission.getLeaseOwner(), submission.getAttempts(),
+                submission.getStatus(), submission.getOutput(), submission.getLintOutput(), submission.getTestResults(),
+                submission.getGrade(), submission.getRuntime(), submission.getMemory(), submission.getGradingKey(),
+                submission.getAIOutput(), submission.getAiStatus(), submission.getAiUpdatedAt()) == 1;
+    }
+
+    @Query("SELECT s.id FROM Submissions s WHERE s.aiStatus = 'Pending' ORDER BY s.submittedAt")
+    List<UUID> findPendingAnalysisIds(Pageable pageable);
+
+    // Only one instance can move a row from Pending to Running, so each analysis runs once
+    @Transactional
+    @Modifying
+    @Query("UPDATE Submissions s SET s.aiStatus = 'Running', s.aiUpdatedAt = :now WHERE s.id = :id AND s.aiStatus = 'Pending'")
+    int claimAnalysis(@Param("id") UUID id, @Param("now") Timestamp now);
+
+    // Targeted update so the AI stage never overwrites grading columns with a stale copy of the row. claimedAt is the
+    // time claimAnalysis set; once a stale claim has been requeued and claimed again it no longer matches
+    @Transactional
+    @Modifying
+    @Query("UPDATE Submissions s SET s.ai_output = :output, s.aiStatus = :aiStatus, s.aiUpdatedAt = :now " +
+            "WHERE s.id = :id AND s.aiStatus = 'Running' AND s.aiUpdatedAt = :claimedAt")
+    int completeAnalysis(@Param("id") UUID id, @Param("claimedAt") Timestamp claimedAt, @Param("output") String output,
+                         @Param("aiStatus") String aiStatus, @Param("now") Timestamp now);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE Submissions s SET s.aiStatus = 'Pending', s.aiUpdatedAt = :now WHERE s.aiStatus = 'Running' AND s.aiUpdatedAt < :staleBefore")
+    int requeueStaleAnalyses(@Param("staleBefore") Timestamp staleBefore, @Param("now") Timestamp now);
 }
@@ -2,12 +2,52 @@ package com.davidwilson.delphi.repositories;
 
 import com.davidwilson.delphi.entities.SubmissionReviews;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
+import java.util.UUID;
 
-public interface SubmissionReviewsRepository extends JpaRepository<SubmissionReviews, String> {
-    List<SubmissionReviews> findBySubmissionId(String id);
-    boolean existsBySubmissionId(String id);
+public interface SubmissionReviewsRepository extends JpaRepository<SubmissionReviews, UUID> {
+    String UNLINKED = "r.submission_id IS NOT NULL AND NOT EXISTS " +
+            "(SELECT 1 FROM submissions s WHERE CAST(s.id AS TEXT) = LOWER(CAST(r.submission_id AS TEXT)))";
+
+    List<SubmissionReviews> findBySubmissionId(UUID id);
+    boolean existsBySubmissionId(UUID id);
 
     List<SubmissionReviews> findByReviewerId(String reviewerId);
-}
\ No newline at end of file
+
+    // submission_id was a varchar before it became a foreign key; ddl-auto=update never changes a column's type
+    @Query(value = "SELECT data_type FROM information_schema.columns WHERE table_schema = current_schema() " +
+            "AND table_name = 'submission_reviews' AND column_name = 'submission_id'", nativeQuery = true)
+    String findSubmissionIdColumnType();
+
+    // Blocks until no other instance holds the lock; released when the surrounding transaction ends
+    @Query(value = "SELECT 1 FROM (SELECT pg_advisory_xact_lock(:key)) AS l", nativeQuery = true)
+    int lockForMigration(@Param("key") long key);
+
+    // Reviews that do not name an existing submission could never be shown and would block the conversion,
+    // so they are moved to submission_reviews_unlinked (same columns, created on first use) rather than dropped
+    @Transactional
+    @Modifying
+    @Query(value = "CREATE TABLE IF NOT EXISTS submission_reviews_unlinked AS SELECT * FROM submission_reviews WITH NO DATA", nativeQuery = true)
+    void createUnlinkedArchive();
+
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO submission_reviews_unlinked SELECT * FROM submission_reviews r WHERE " + UNLINKED, nativeQuery = true)
+    int archiveUnlinkedReviews();
+
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM submission_reviews r WHERE " + UNLINKED, nativeQuery = true)
+    int deleteUnlinkedReviews();
+
+    @Transactional
+    @Modifying
+    @Query(value = "ALTER TABLE submission_reviews ALTER COLUMN submission_id TYPE uuid USING CAST(submission_id AS uuid), " +
+            "ADD CONSTRAINT fk_submission_reviews_submission FOREIGN KEY (submission_id) REFERENCES submissions (id)", nativeQuery = true)
+    void convertSubmissionIdToForeignKey();
+}
@@ -0,0 +1,22 @@
+package com.davidwilson.delphi.repositories;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * The fields a submission list needs. Selected directly by JPQL constructor expressions, so the large
+ * output, lint, AI and test result columns and the assignment are never read for list views; the full
+ * submission is available from GET /api/submissions/{id}.
+ */
+public record SubmissionSummary(UUID id, UUID assignmentId, String userId, String fileName, String status,
+                                String aiStatus, Double grade, Integer runtime, Integer memory, String timestamp,
+                                Timestamp submittedAt) {
+
+    static final String SELECT = "SELECT new com.davidwilson.delphi.repositories.SubmissionSummary(" +
+            "s.id, s.assignment.id, s.userId, s.fileName, s.status, s.aiStatus, s.grade, s.runtime, s.memory, " +
+            "s.timestamp, s.submittedAt) ";
+
+    public SubmissionCursor cursor() {
+        return new SubmissionCursor(submittedAt, id);
+    }
+}
@@ -0,0 +1,89 @@
+package com.davidwilson.delphi.sandbox;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.ExecCreateCmdResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs jobs in python-runner containers through the Docker API, borrowing warm containers from
+ * the {@link SandboxPool} and falling back to a one-off container when the pool is exhausted.
+ * The job's workspace is copied into the container, so no host directory is shared with it.
+ */
+@Component
+@ConditionalOnProperty(name = "sandbox.executor", havingValue = "docker", matchIfMissing = true)
+public class DockerSandboxExecutor implements SandboxExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(DockerSandboxExecutor.class);
+    // The workspace directory is copied under here; the pool wipes /tmp between jobs
+    private static final String CONTAINER_TMP = "/tmp";
+
+    private final DockerClient dockerClient;
+    private final SandboxPool sandboxPool;
+
+    public DockerSandboxExecutor(DockerClient dockerClient, SandboxPool sandboxPool) {
+        this.dockerClient = dockerClient;
+        this.sandboxPool = sandboxPool;
+    }
+
+    @Override
+    public SandboxResult execute(SandboxJob job, Consumer<String> outputListener) throws IOException, InterruptedException {
+        SandboxCommands.writeJobFiles(job);
+        Path workspace = job.getWorkspace().toAbsolutePath().normalize();
+        String command = SandboxCommands.build(CONTAINER_TMP + "/" + workspace.getFileName(), job);
+
+        Optional<Sandbox> pooled = sandboxPool.acquire();
+        Sandbox sandbox = pooled.isPresent() ? pooled.get() : sandboxPool.createDetached();
+        boolean contaminated = true;
+        MemoryStatsCallback stats = null;
+        try {
+            dockerClient.copyArchiveToContainerCmd(sandbox.getContainerId())
+                    .withHostResource(workspace.toString())
+                    .withRemotePath(CONTAINER_TMP)
+                    .exec();
+            stats = dockerClient.statsCmd(sandbox.getContainerId()).exec(new MemoryStatsCallback());
+            long start = System.nanoTime();
+            ExecCreateCmdResponse exec = dockerClient.execCreateCmd(sandbox.getContainerId())
+                    .withCmd("sh", "-c", command)
+                    .withAttachStdin(true)
+                    .withAttachStdout(true)
+                    .withAttachStderr(true)
+                    .exec();
+            LineCallback output = dockerClient.execStartCmd(exec.getId())
+                    .withStdIn(new ByteArrayInputStream(SandboxCommands.stdin(job)))
+                    .exec(new LineCallback(outputListener));
+            boolean finished = output.awaitCompletion(job.getTimeoutSeconds(), TimeUnit.SECONDS);
+            long runtimeMillis = (System.nanoTime() - start) / 1_000_000;
+
+            if (!finished) {
+                logger.warn("Job {} timed out after {} s in sandbox {}", workspace.getFileName(), job.getTimeoutSeconds(), sandbox.getContainerId());
+                output.close();
+                return new SandboxResult(-1, runtimeMillis, stats.getPeakKb(), true);
+            }
+            output.flush();
+
+            Long exitCode = dockerClient.inspectExecCmd(exec.getId()).exec().getExitCodeLong();
+            long code = exitCode == null ? -1 : exitCode;
+            contaminated = code != 0;
+            return new SandboxResult(code, runtimeMillis, stats.getPeakKb(), false);
+        } finally {
+            if (stats != null) {
+                stats.close();
+            }
+            if (pooled.isPresent()) {
+                sandboxPool.release(sandbox, contaminated);
+            } else {
+                sandboxPool.discard(sandbox);
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.davidwilson.delphi.sandbox;
+
+import com.github.dockerjava.api.async.ResultCallback;
+import com.github.dockerjava.api.model.Frame;
+import com.github.dockerjava.api.model.StreamType;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Splits docker exec frames into lines and forwards them as they arrive. Stdout and stderr are
+ * buffered separately so a partial line on one stream is never glued to the other.
+ */
+class LineCallback extends ResultCallback.Adapter<Frame> {
+    private final Consumer<String> listener;
+    private final Map<StreamType, ByteArrayOutputStream> partialLines = new EnumMap<>(StreamType.class);
+
+    LineCallback(Consumer<String> listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public synchronized void onNext(Frame frame) {
+        ByteArrayOutputStream partial = partialLines.computeIfAbsent(frame.getStreamType(), type -> new ByteArrayOutputStream());
+        for (byte b : frame.getPayload()) {
+            if (b == '\n') {
+                emit(partial);
+            } else {
+                partial.write(b);
+            }
+        }
+    }
+
+    /**
+     * Forwards any trailing output that did not end with a newline.
+     */
+    synchronized void flush() {
+        for (ByteArrayOutputStream partial : partialLines.values()) {
+            if (partial.size() > 0) {
+                emit(partial);
+            }
+        }
+    }
+
+    private void emit(ByteArrayOutputStream partial) {
+        listener.accept(partial.toString(StandardCharsets.UTF_8));
+        partial.reset();
+    }
+}
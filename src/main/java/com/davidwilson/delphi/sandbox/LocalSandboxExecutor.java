@@ -0,0 +1,80 @@
+package com.davidwilson.delphi.sandbox;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Runs the real harness directly on the host with its own python3 and pylint (sandbox.executor=local).
+ * There is no isolation, so this is only meant for development machines without Docker. It is not a
+ * test double: LocalSandboxExecutorTest uses it to run the harness end to end.
+ */
+@Component
+@ConditionalOnProperty(name = "sandbox.executor", havingValue = "local")
+public class LocalSandboxExecutor implements SandboxExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalSandboxExecutor.class);
+    // How long output may keep draining once the job itself is done or killed
+    private static final long DRAIN_MILLIS = 5_000;
+
+    @Override
+    public SandboxResult execute(SandboxJob job, Consumer<String> outputListener) throws IOException, InterruptedException {
+        SandboxCommands.writeJobFiles(job);
+        String command = SandboxCommands.build(job.getWorkspace().toAbsolutePath().toString(), job);
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder("sh", "-c", command).redirectErrorStream(true).start();
+        try (OutputStream stdin = process.getOutputStream()) {
+            stdin.write(SandboxCommands.stdin(job));
+        }
+        // Drain on a separate thread so the timeout below still applies if the job stops printing
+        AtomicBoolean reading = new AtomicBoolean(true);
+        Thread reader = new Thread(() -> {
+            try (BufferedReader lines = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = lines.readLine()) != null) {
+                    synchronized (reading) {
+                        if (!reading.get()) {
+                            break;
+                        }
+                        outputListener.accept(line);
+                    }
+                }
+            } catch (IOException e) {
+                // Process was killed
+            }
+        }, "LocalSandbox-output");
+        reader.setDaemon(true);
+        reader.start();
+
+        boolean finished = process.waitFor(job.getTimeoutSeconds(), TimeUnit.SECONDS);
+        if (!finished) {
+            // Children first: once the shell is gone its orphans are no longer listed as descendants
+            List<ProcessHandle> descendants = process.descendants().toList();
+            descendants.forEach(ProcessHandle::destroyForcibly);
+            process.destroyForcibly();
+        }
+        reader.join(DRAIN_MILLIS);
+        if (reader.isAlive()) {
+            // A detached grandchild still holds the pipe open; the daemon reader ends when it does
+            logger.warn("Output of local sandbox job in {} still open after the job ended; no longer reading it", job.getWorkspace());
+        }
+        // Late output must not reach a report the caller is already reading
+        synchronized (reading) {
+            reading.set(false);
+        }
+        long runtimeMillis = (System.nanoTime() - start) / 1_000_000;
+        return new SandboxResult(finished ? process.exitValue() : -1, runtimeMillis, 0, !finished);
+    }
+}
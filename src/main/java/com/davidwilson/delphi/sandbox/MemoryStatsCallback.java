@@ -0,0 +1,26 @@
+package com.davidwilson.delphi.sandbox;
+
+import com.github.dockerjava.api.async.ResultCallback;
+import com.github.dockerjava.api.model.MemoryStatsConfig;
+import com.github.dockerjava.api.model.Statistics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the highest container memory usage reported by the Docker stats stream.
+ */
+class MemoryStatsCallback extends ResultCallback.Adapter<Statistics> {
+    private final AtomicLong peakBytes = new AtomicLong();
+
+    @Override
+    public void onNext(Statistics statistics) {
+        MemoryStatsConfig memory = statistics.getMemoryStats();
+        if (memory != null && memory.getUsage() != null) {
+            peakBytes.accumulateAndGet(memory.getUsage(), Math::max);
+        }
+    }
+
+    long getPeakKb() {
+        return peakBytes.get() / 1024;
+    }
+}
@@ -0,0 +1,31 @@
+package com.davidwilson.delphi.sandbox;
+
+/**
+ * A pre-started python-runner container owned by the {@link SandboxPool}.
+ */
+public class Sandbox {
+    private final String containerId;
+    private final long createdAt;
+    private int uses;
+
+    Sandbox(String containerId) {
+        this.containerId = containerId;
+        this.createdAt = System.currentTimeMillis();
+    }
+
+    public String getContainerId() {
+        return containerId;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public int getUses() {
+        return uses;
+    }
+
+    int recordUse() {
+        return ++uses;
+    }
+}
@@ -0,0 +1,69 @@
+package com.davidwilson.delphi.sandbox;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds the command a sandbox runs for a job and writes the files it reads.
+ * Shared by every {@link SandboxExecutor} so they produce identical output.
+ */
+final class SandboxCommands {
+
+    static final String HARNESS_FILE = "harness.py";
+    static final String JOB_FILE = "job.json";
+    private static final String HARNESS_RESOURCE = "sandbox/" + HARNESS_FILE;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private SandboxCommands() {
+    }
+
+    /**
+     * Writes the harness and the job description into the job's workspace, next to its source directory.
+     * The harness deletes both once it has read them. The nonce is not in either; see {@link #stdin}.
+     */
+    static void writeJobFiles(SandboxJob job) throws IOException {
+        try (InputStream harness = new ClassPathResource(HARNESS_RESOURCE).getInputStream()) {
+            Files.copy(harness, job.getWorkspace().resolve(HARNESS_FILE), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("entry", job.getEntryName());
+        description.put("timeLimitSeconds", job.getTimeLimitSeconds());
+        description.put("memoryLimitMb", job.getMemoryLimitMb());
+        description.put("parallelism", job.getParallelism());
+        description.put("mode", job.getTestMode());
+        description.put("lintSkip", job.getLintSkip());
+        description.put("testCases", job.getTestCases());
+        OBJECT_MAPPER.writeValue(job.getWorkspace().resolve(JOB_FILE).toFile(), description);
+    }
+
+    /**
+     * What the harness reads on stdin: the framing nonce, kept out of every file and the environment,
+     * which the submission could read.
+     */
+    static byte[] stdin(SandboxJob job) {
+        return job.getNonce().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @param jobDir where the workspace is visible to the command; the submission runs in place in its source directory
+     */
+    static String build(String jobDir, SandboxJob job) {
+        String source = quote(jobDir + "/" + SandboxJob.SOURCE_DIR);
+        return "python3 -u " + quote(jobDir + "/" + HARNESS_FILE) + " " +
+                quote(jobDir + "/" + JOB_FILE) + " " + source + " " + source;
+    }
+
+    // Single-quote for sh so uploaded file names cannot inject commands
+    static String quote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+}
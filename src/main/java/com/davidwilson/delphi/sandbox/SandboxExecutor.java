@@ -0,0 +1,16 @@
+package com.davidwilson.delphi.sandbox;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Runs a grading job in an isolated environment. The implementation is picked with the
+ * sandbox.executor property: "docker" (default) or "local" for development and tests.
+ */
+public interface SandboxExecutor {
+
+    /**
+     * Runs the job, handing each line of output to the listener as soon as it is produced.
+     */
+    SandboxResult execute(SandboxJob job, Consumer<String> outputListener) throws IOException, InterruptedException;
+}
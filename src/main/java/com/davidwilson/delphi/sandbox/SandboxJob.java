@@ -0,0 +1,114 @@
+package com.davidwilson.delphi.sandbox;
+
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One grading run: the job's workspace, its test cases and how long it may take. The workspace is a
+ * directory owned by this job alone; the extracted submission lives in its {@link #SOURCE_DIR}. Each job gets a
+ * random nonce that frames its result records, see {@link SandboxReport}.
+ * Test cases run up to {@code parallelism} at a time, each held to the per-case time and memory limits.
+ */
+public class SandboxJob {
+    public static final String SOURCE_DIR = "source";
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Path workspace;
+    private final String entryName;
+    private final List<TestInput> testCases;
+    private final long timeoutSeconds;
+    private final double timeLimitSeconds;
+    private final int memoryLimitMb;
+    private final int parallelism;
+    private final String testMode;
+    private final Set<String> lintSkip;
+    private final String nonce;
+
+    /**
+     * @param workspace  per-job directory on the host; its {@link #SOURCE_DIR} holds the extracted submission
+     * @param entryName the uploaded zip's name without extension; the harness runs entryName.py, or main.py
+     * @param testMode "fork" to fork each test case from a preloaded interpreter, "exec" to start a fresh python3 per case
+     * @param lintSkip top-level files whose lint results are already cached and need not be linted again
+     */
+    public SandboxJob(Path workspace, String entryName, List<TestInput> testCases, long timeoutSeconds,
+                      double timeLimitSeconds, int memoryLimitMb, int parallelism, String testMode,
+                      Set<String> lintSkip) {
+        this.workspace = workspace;
+        this.entryName = entryName;
+        this.testCases = testCases == null ? List.of() : List.copyOf(testCases);
+        this.timeoutSeconds = timeoutSeconds;
+        this.timeLimitSeconds = timeLimitSeconds;
+        this.memoryLimitMb = memoryLimitMb;
+        this.parallelism = Math.max(1, parallelism);
+        this.testMode = testMode;
+        this.lintSkip = lintSkip == null ? Set.of() : Set.copyOf(lintSkip);
+        byte[] bytes = new byte[16];
+        RANDOM.nextBytes(bytes);
+        this.nonce = HexFormat.of().formatHex(bytes);
+    }
+
+    public Path getWorkspace() {
+        return workspace;
+    }
+
+    public String getEntryName() {
+        return entryName;
+    }
+
+    public List<TestInput> getTestCases() {
+        return testCases;
+    }
+
+    public boolean hasTestCases() {
+        return !testCases.isEmpty();
+    }
+
+    public long getTimeoutSeconds() {
+        return timeoutSeconds;
+    }
+
+    public double getTimeLimitSeconds() {
+        return timeLimitSeconds;
+    }
+
+    public int getMemoryLimitMb() {
+        return memoryLimitMb;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public String getTestMode() {
+        return testMode;
+    }
+
+    public Set<String> getLintSkip() {
+        return lintSkip;
+    }
+
+    public String getNonce() {
+        return nonce;
+    }
+
+    public static class TestInput {
+        private final String input;
+        private final String expected;
+
+        public TestInput(String input, String expected) {
+            this.input = input;
+            this.expected = expected;
+        }
+
+        public String getInput() {
+            return input;
+        }
+
+        public String getExpected() {
+            return expected;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package com.davidwilson.delphi.sandbox;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.async.ResultCallback;
+import com.github.dockerjava.api.command.CreateContainerResponse;
+import com.github.dockerjava.api.command.ExecCreateCmdResponse;
+import com.github.dockerjava.api.exception.NotFoundException;
+import com.github.dockerjava.api.model.Container;
+import com.github.dockerjava.api.model.Frame;
+import com.github.dockerjava.api.model.HostConfig;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a set of pre-started python-runner containers so grading does not pay for
+ * container creation on every submission. Containers idle on "sleep infinity" and are
+ * driven through docker exec; between uses they are reset, and they are recycled after
+ * a fixed number of uses, when a reset fails or when a run leaves them in a bad state.
+ */
+@Component
+public class SandboxPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(SandboxPool.class);
+    private static final String POOL_LABEL = "delphi.sandbox";
+    private static final String INSTANCE_LABEL = "delphi.instance";
+
+    // Kills everything except PID 1 and the shell itself, then wipes the scratch space a job uses and
+    // every other directory the sandbox user can write to, so nothing carries over to the next job
+    private static final String RESET_COMMAND = "kill -9 -1 2>/dev/null; "
+            + "for dir in /tmp /var/tmp /dev/shm /run/lock; do find \"$dir\" -mindepth 1 -delete 2>/dev/null; done; "
+            + "rm -rf /root/.cache 2>/dev/null; exit 0";
+
+    private final DockerClient dockerClient;
+    private final boolean enabled;
+    private final String image;
+    private final String dockerfileDir;
+    private final int minSize;
+    private final int maxSize;
+    private final int maxUses;
+    private final long acquireTimeoutMillis;
+    private final long memoryBytes;
+    private final long nanoCpus;
+    private final String instanceLabel;
+
+    private final BlockingDeque<Sandbox> idle = new LinkedBlockingDeque<>();
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicLong acquisitions = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong maxAcquireMillis = new AtomicLong();
+    private final ExecutorService replenisher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "SandboxPool-replenish");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile boolean available;
+
+    public SandboxPool(DockerClient dockerClient,
+                       @Value("${sandbox.pool.enabled}") boolean enabled,
+                       @Value("${sandbox.image}") String image,
+                       @Value("${sandbox.image.dockerfile-dir}") String dockerfileDir,
+                       @Value("${sandbox.pool.min-size}") int minSize,
+                       @Value("${sandbox.pool.max-size}") int maxSize,
+                       @Value("${sandbox.pool.max-uses}") int maxUses,
+                       @Value("${sandbox.pool.acquire-timeout-ms}") long acquireTimeoutMillis,
+                       @Value("${sandbox.container.memory-mb}") long memoryMb,
+                       @Value("${sandbox.container.cpus}") double cpus) {
+        this.dockerClient = dockerClient;
+        this.enabled = enabled;
+        this.image = image;
+        this.dockerfileDir = dockerfileDir;
+        this.minSize = minSize;
+        this.maxSize = Math.max(minSize, maxSize);
+        this.maxUses = maxUses;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.memoryBytes = memoryMb * 1024 * 1024;
+        this.nanoCpus = (long) (cpus * 1_000_000_000L);
+        this.instanceLabel = hostName();
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "delphi";
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (!enabled) {
+            logger.info("Sandbox pool disabled - every submission will start a fresh container");
+            return;
+        }
+        replenisher.execute(() -> {
+            try {
+                removeStaleContainers();
+                ensureImage();
+                available = true;
+                replenish();
+                logger.info("Sandbox pool warmed up with {} containers", total.get());
+            } catch (Exception e) {
+                logger.warn("Sandbox pool unavailable, falling back to cold containers: {}", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Borrows a warm sandbox. Grows the pool up to its maximum when nothing is idle, then waits up to the
+     * acquire timeout. Returns empty when the pool is disabled or exhausted, in which case the caller runs cold.
+     */
+    public Optional<Sandbox> acquire() throws InterruptedException {
+        if (!enabled || !available) {
+            return Optional.empty();
+        }
+        long start = System.currentTimeMillis();
+        Sandbox sandbox = idle.pollFirst();
+        if (sandbox == null && reserveSlot()) {
+            sandbox = createOrRelease();
+        }
+        if (sandbox == null) {
+            sandbox = idle.pollFirst(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        scheduleReplenish();
+
+        if (sandbox == null) {
+            misses.incrementAndGet();
+            logger.warn("No sandbox available within {} ms ({} in use)", acquireTimeoutMillis, total.get());
+            return Optional.empty();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        acquisitions.incrementAndGet();
+        maxAcquireMillis.accumulateAndGet(elapsed, Math::max);
+        logger.debug("Acquired sandbox {} in {} ms", sandbox.getContainerId(), elapsed);
+        return Optional.of(sandbox);
+    }
+
+    /**
+     * Returns a sandbox to the pool. It is destroyed instead if the run contaminated it, it has reached
+     * its use limit, or it cannot be reset.
+     */
+    public void release(Sandbox sandbox, boolean contaminated) {
+        int uses = sandbox.recordUse();
+        if (contaminated || uses >= maxUses || !reset(sandbox)) {
+            logger.info("Recycling sandbox {} after {} uses (contaminated: {})", sandbox.getContainerId(), uses, contaminated);
+            destroy(sandbox);
+            scheduleReplenish();
+            return;
+        }
+        // Most recently used first keeps a small hot set and lets the rest age out
+        idle.offerFirst(sandbox);
+    }
+
+    /**
+     * Starts a container outside the pool for a single job, used when no pooled sandbox is free.
+     * Hand it back through {@link #discard(Sandbox)}.
+     */
+    public Sandbox createDetached() {
+        if (!available) {
+            ensureImage();
+        }
+        return createSandbox();
+    }
+
+    public void discard(Sandbox sandbox) {
+        removeContainer(sandbox);
+    }
+
+    @Scheduled(fixedDelayString = "${sandbox.pool.health-check-interval-ms}")
+    public void healthCheck() {
+        if (!enabled) {
+            return;
+        }
+        if (!available) {
+            warmUp();
+            return;
+        }
+        List<Sandbox> checked = new ArrayList<>();
+        idle.drainTo(checked);
+        for (Sandbox sandbox : checked) {
+            if (isRunning(sandbox)) {
+                idle.offerLast(sandbox);
+            } else {
+                logger.warn("Sandbox {} failed its health check", sandbox.getContainerId());
+                destroy(sandbox);
+            }
+        }
+        scheduleReplenish();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getTotalCount() {
+        return total.get();
+    }
+
+    public long getAcquisitions() {
+        return acquisitions.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getMaxAcquireMillis() {
+        return maxAcquireMillis.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        replenisher.shutdownNow();
+        List<Sandbox> remaining = new ArrayList<>();
+        idle.drainTo(remaining);
+        remaining.forEach(this::destroy);
+    }
+
+    private boolean reserveSlot() {
+        return total.getAndUpdate(count -> count < maxSize ? count + 1 : count) < maxSize;
+    }
+
+    private Sandbox createOrRelease() {
+        try {
+            return createSandbox();
+        } catch (Exception e) {
+            total.decrementAndGet();
+            logger.error("Failed to start sandbox container: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void scheduleReplenish() {
+        if (available && idle.size() < minSize && total.get() < maxSize) {
+            replenisher.execute(this::replenish);
+        }
+    }
+
+    private void replenish() {
+        while (idle.size() < minSize && reserveSlot()) {
+            Sandbox sandbox = createOrRelease();
+            if (sandbox == null) {
+                return;
+            }
+            idle.offerLast(sandbox);
+        }
+    }
+
+    // Nothing from the host is mounted; each job's workspace is copied in, so a container only ever sees its own job
+    private Sandbox createSandbox() {
+        CreateContainerResponse container = dockerClient.createContainerCmd(image)
+                .withName("delphi_sandbox_" + UUID.randomUUID().toString().substring(0, 8))
+                .withCmd("sleep", "infinity")
+                .withLabels(Map.of(POOL_LABEL, image, INSTANCE_LABEL, instanceLabel))
+                .withHostConfig(HostConfig.newHostConfig()
+                        .withMemory(memoryBytes)
+                        .withNanoCPUs(nanoCpus))
+                .exec();
+        dockerClient.startContainerCmd(container.getId()).exec();
+        return new Sandbox(container.getId());
+    }
+
+    private boolean reset(Sandbox sandbox) {
+        try {
+            return exec(sandbox.getContainerId(), 10, "sh", "-c", RESET_COMMAND) == 0 && isRunning(sandbox);
+        } catch (Exception e) {
+            logger.warn("Failed to reset sandbox {}: {}", sandbox.getContainerId(), e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean isRunning(Sandbox sandbox) {
+        try {
+            Boolean running = dockerClient.inspectContainerCmd(sandbox.getContainerId()).exec().getState().getRunning();
+            return Boolean.TRUE.equals(running);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private long exec(String containerId, long timeoutSeconds, String... command) throws InterruptedException {
+        ExecCreateCmdResponse exec = dockerClient.execCreateCmd(containerId)
+                .withCmd(command)
+                .withAttachStdout(true)
+                .withAttachStderr(true)
+                .exec();
+        boolean completed = dockerClient.execStartCmd(exec.getId())
+                .exec(new ResultCallback.Adapter<Frame>())
+                .awaitCompletion(timeoutSeconds, TimeUnit.SECONDS);
+        if (!completed) {
+            return -1;
+        }
+        Long exitCode = dockerClient.inspectExecCmd(exec.getId()).exec().getExitCodeLong();
+        return exitCode == null ? -1 : exitCode;
+    }
+
+    private void destroy(Sandbox sandbox) {
+        total.decrementAndGet();
+        removeContainer(sandbox);
+    }
+
+    private void removeContainer(Sandbox sandbox) {
+        try {
+            dockerClient.removeContainerCmd(sandbox.getContainerId()).withForce(true).exec();
+        } catch (NotFoundException e) {
+            // Already gone
+        } catch (Exception e) {
+            logger.error("Failed to remove sandbox {}: {}", sandbox.getContainerId(), e.getMessage());
+        }
+    }
+
+    // Containers left behind by a previous run of this instance are unusable after a restart
+    private void removeStaleContainers() {
+        List<Container> stale = dockerClient.listContainersCmd()
+                .withShowAll(true)
+                .withLabelFilter(Map.of(POOL_LABEL, image, INSTANCE_LABEL, instanceLabel))
+                .exec();
+        for (Container container : stale) {
+            try {
+                dockerClient.removeContainerCmd(container.getId()).withForce(true).exec();
+            } catch (Exception e) {
+                logger.warn("Failed to remove stale sandbox {}: {}", container.getId(), e.getMessage());
+            }
+        }
+    }
+
+    private void ensureImage() {
+        try {
+            dockerClient.inspectImageCmd(image).exec();
+        } catch (NotFoundException e) {
+            logger.info("Building sandbox image '{}' from {}", image, dockerfileDir);
+            dockerClient.buildImageCmd(Paths.get(dockerfileDir).toAbsolutePath().toFile())
+                    .withTags(Set.of(image))
+                    .start()
+                    .awaitImageId();
+        }
+    }
+}
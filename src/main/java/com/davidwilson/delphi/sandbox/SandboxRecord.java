@@ -0,0 +1,94 @@
+package com.davidwilson.delphi.sandbox;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Typed result records emitted by the sandbox harness, one JSON object per framed line.
+ * Unknown fields are ignored so the harness can add data without breaking older backends.
+ */
+@JsonTypeInfo(use = JsonTypeInfo.Id.NAME, property = "type")
+@JsonSubTypes({
+        @JsonSubTypes.Type(value = SandboxRecord.Hello.class, name = "hello"),
+        @JsonSubTypes.Type(value = SandboxRecord.Lint.class, name = "lint"),
+        @JsonSubTypes.Type(value = SandboxRecord.TestCaseResult.class, name = "test"),
+        @JsonSubTypes.Type(value = SandboxRecord.Output.class, name = "output"),
+        @JsonSubTypes.Type(value = SandboxRecord.Error.class, name = "error"),
+        @JsonSubTypes.Type(value = SandboxRecord.Metrics.class, name = "metrics"),
+        @JsonSubTypes.Type(value = SandboxRecord.End.class, name = "end")
+})
+@JsonIgnoreProperties(ignoreUnknown = true)
+public sealed interface SandboxRecord {
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record Hello(int version) implements SandboxRecord {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record Lint(List<LintMessage> messages, Double score, List<LintedFile> files) implements SandboxRecord {
+
+        /**
+         * Renders the messages the way pylint's text reporter does, which is what the frontend shows.
+         */
+        public String render() {
+            StringBuilder sb = new StringBuilder();
+            String module = null;
+            for (LintMessage message : messages == null ? List.<LintMessage>of() : messages) {
+                if (!Objects.equals(message.module(), module)) {
+                    module = message.module();
+                    sb.append("************* Module ").append(module).append('\n');
+                }
+                sb.append(message.path()).append(':').append(message.line()).append(':').append(message.column())
+                        .append(": ").append(message.messageId()).append(": ").append(message.message())
+                        .append(" (").append(message.symbol()).append(")\n");
+            }
+            if (score != null) {
+                sb.append("\n------------------------------------------------------------------\n")
+                        .append("Your code has been rated at ").append(String.format(Locale.ROOT, "%.2f", score)).append("/10\n");
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * A file pylint actually ran on in this job; files the backend had cached are not listed.
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record LintedFile(String path, int statements) {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record LintMessage(String path, String module, Integer line, Integer column, String type,
+                       String messageId, String symbol, String message) {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record TestCaseResult(int index, String input, String expected, String actual, String status,
+                          long memory, long runtime, long cpuTime, String error) implements SandboxRecord {
+
+        public boolean passed() {
+            return "Passed".equals(status);
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record Output(String text, int exitCode) implements SandboxRecord {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record Error(String message) implements SandboxRecord {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record Metrics(long runtime, long memory) implements SandboxRecord {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record End() implements SandboxRecord {
+    }
+}
@@ -0,0 +1,126 @@
+package com.davidwilson.delphi.sandbox;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Parses a job's output line by line as it streams out of the sandbox. Only lines framed as
+ * "@@delphi/&lt;version&gt; &lt;nonce&gt; &lt;json&gt;" with this job's nonce are records; everything else is
+ * kept, up to a bound, as diagnostics for the logs.
+ */
+public class SandboxReport implements Consumer<String> {
+
+    public static final int PROTOCOL_VERSION = 1;
+    private static final String FRAME_MARKER = "@@delphi/";
+    private static final int DIAGNOSTICS_LIMIT = 10000;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final Logger logger = LoggerFactory.getLogger(SandboxReport.class);
+    private final String prefix;
+    private final String nonce;
+
+    private final StringBuilder diagnostics = new StringBuilder();
+    private final List<SandboxRecord.TestCaseResult> testResults = new ArrayList<>();
+    private SandboxRecord.Lint lint;
+    private SandboxRecord.Output output;
+    private SandboxRecord.Error error;
+    private SandboxRecord.Metrics metrics;
+    private boolean started;
+    private boolean complete;
+    private String protocolError;
+
+    public SandboxReport(SandboxJob job) {
+        this.nonce = job.getNonce();
+        this.prefix = FRAME_MARKER + PROTOCOL_VERSION + " " + nonce + " ";
+    }
+
+    @Override
+    public synchronized void accept(String line) {
+        if (!line.startsWith(prefix)) {
+            if (line.startsWith(FRAME_MARKER) && line.contains(" " + nonce + " ")) {
+                protocolError = "Unsupported result protocol: " + line.substring(0, line.indexOf(' '));
+            }
+            appendDiagnostics(line);
+            return;
+        }
+        if (complete) {
+            protocolError = "Result record after end of report";
+            return;
+        }
+        SandboxRecord record;
+        try {
+            record = OBJECT_MAPPER.readValue(line.substring(prefix.length()), SandboxRecord.class);
+        } catch (JsonProcessingException e) {
+            logger.warn("Malformed sandbox record: {}", e.getOriginalMessage());
+            protocolError = "Malformed result record";
+            return;
+        }
+        switch (record) {
+            case SandboxRecord.Hello hello -> started = true;
+            case SandboxRecord.Lint l -> lint = l;
+            case SandboxRecord.TestCaseResult result -> testResults.add(result);
+            case SandboxRecord.Output o -> output = o;
+            case SandboxRecord.Error e -> error = e;
+            case SandboxRecord.Metrics m -> metrics = m;
+            case SandboxRecord.End end -> complete = true;
+        }
+    }
+
+    private void appendDiagnostics(String line) {
+        int remaining = DIAGNOSTICS_LIMIT - diagnostics.length();
+        if (remaining <= 0) {
+            return;
+        }
+        diagnostics.append(line, 0, Math.min(line.length(), remaining)).append('\n');
+    }
+
+    /**
+     * A report is usable once the harness said hello, reached its end record and nothing malformed came in between.
+     */
+    public synchronized boolean isComplete() {
+        return started && complete && protocolError == null;
+    }
+
+    public synchronized String getProtocolError() {
+        if (protocolError != null) {
+            return protocolError;
+        }
+        return started ? (complete ? null : "Result report ended early") : "No result report received";
+    }
+
+    public synchronized SandboxRecord.Lint getLint() {
+        return lint;
+    }
+
+    /**
+     * Results in test case order; the harness reports them as they finish, which may be out of order.
+     */
+    public synchronized List<SandboxRecord.TestCaseResult> getTestResults() {
+        return testResults.stream()
+                .sorted(Comparator.comparingInt(SandboxRecord.TestCaseResult::index))
+                .toList();
+    }
+
+    public synchronized SandboxRecord.Output getOutput() {
+        return output;
+    }
+
+    public synchronized SandboxRecord.Error getError() {
+        return error;
+    }
+
+    public synchronized SandboxRecord.Metrics getMetrics() {
+        return metrics;
+    }
+
+    public synchronized String getDiagnostics() {
+        return diagnostics.toString();
+    }
+}
@@ -0,0 +1,31 @@
+package com.davidwilson.delphi.sandbox;
+
+public class SandboxResult {
+    private final long exitCode;
+    private final long runtimeMillis;
+    private final long peakMemoryKb;
+    private final boolean timedOut;
+
+    public SandboxResult(long exitCode, long runtimeMillis, long peakMemoryKb, boolean timedOut) {
+        this.exitCode = exitCode;
+        this.runtimeMillis = runtimeMillis;
+        this.peakMemoryKb = peakMemoryKb;
+        this.timedOut = timedOut;
+    }
+
+    public long getExitCode() {
+        return exitCode;
+    }
+
+    public long getRuntimeMillis() {
+        return runtimeMillis;
+    }
+
+    public long getPeakMemoryKb() {
+        return peakMemoryKb;
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+}
@@ -2,20 +2,32 @@ package com.davidwilson.delphi.services;
 
 import com.davidwilson.delphi.config.AIConfig;
 import com.davidwilson.delphi.config.AIConfiguration;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 
-import java.io.File;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 @Service
 public class AIAnalysisService {
@@ -24,15 +36,40 @@ public class AIAnalysisService {
     private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper;
     private final AIConfigurationService configService;
+    private final LLMRateLimiter rateLimiter;
+    private final PromptBuilder promptBuilder;
+    private final LlmResponseCache responseCache;
+    private final int maxAttempts;
+    private final long retryBaseDelayMillis;
+    private final long retryMaxDelayMillis;
 
-    public AIAnalysisService(AIConfig aiConfig, AIConfigurationService configService) {
+    public AIAnalysisService(AIConfig aiConfig, AIConfigurationService configService, LLMRateLimiter rateLimiter,
+                             PromptBuilder promptBuilder, LlmResponseCache responseCache,
+                             @Qualifier("llmRestTemplate") RestTemplate restTemplate,
+                             @Value("${ai.retry.max-attempts}") int maxAttempts,
+                             @Value("${ai.retry.base-delay-ms}") long retryBaseDelayMillis,
+                             @Value("${ai.retry.max-delay-ms}") long retryMaxDelayMillis) {
         this.aiConfig = aiConfig;
         this.configService = configService;
-        this.restTemplate = new RestTemplate();
+        this.rateLimiter = rateLimiter;
+        this.promptBuilder = promptBuilder;
+        this.responseCache = responseCache;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryBaseDelayMillis = retryBaseDelayMillis;
+        this.retryMaxDelayMillis = retryMaxDelayMillis;
+        this.restTemplate = restTemplate;
         this.objectMapper = new ObjectMapper();
     }
 
-    public String analyzeCode(String projectPath) {
+    public boolean isEnabled() {
+        return configService.getActiveConfiguration().map(AIConfiguration::isActive).orElse(false);
+    }
+
+    /**
+     * entryName is the submission's base name, used to put its entry point first; may be null. If onDelta
+     * is given, the completion is streamed and each piece of text is passed to it as it arrives.
+     */
+    public String analyzeCode(String projectPath, String entryName, Consumer<String> onDelta) {
         // First check if AI analysis is enabled
         Optional<AIConfiguration> activeConfig = configService.getActiveConfiguration();
         if (activeConfig.isEmpty() || !activeConfig.get().isActive()) {
@@ -61,28 +98,27 @@ public class AIAnalysisService {
                 paths.forEach(p -> logger.info("- {}", p));
             }
 
-            // Read all code files
-            List<FileContent> codeFiles = readProjectFiles(path.toString());
-            if (codeFiles.isEmpty()) {
+            // Prepare the prompt from the most relevant code files that fit the model's token budget
+            // The whole analysis uses the configuration read above, even if it changes meanwhile
+            PromptBuilder.Prompt prompt = promptBuilder.build(activeConfig.get(), path, entryName);
+            if (prompt.fileCount() == 0) {
                 logger.warn("No code files found in: {}", path);
                 return "No code files found to analyze.";
             }
 
-            logger.info("Found {} files to analyze:", codeFiles.size());
-            codeFiles.forEach(file -> logger.info("- {}", file.path));
-            
-            // Prepare the prompt
-            String prompt = buildAnalysisPrompt(codeFiles);
-
             // Call LLM API
-            return callLLMAPI(prompt);
+            return callLLMAPI(activeConfig.get(), prompt.text(), false, onDelta);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "Error analyzing code: interrupted";
         } catch (Exception e) {
             logger.error("Error during code analysis for path: " + projectPath, e);
             return "Error analyzing code: " + e.getMessage();
         }
     }
 
-    public String analyzeSubmissionText(String prompt) {
+    // bypassCache asks the model again even if an identical prompt was answered before
+    public String analyzeSubmissionText(String prompt, boolean bypassCache) {
         // First check if AI analysis is enabled
         Optional<AIConfiguration> activeConfig = configService.getActiveConfiguration();
         if (activeConfig.isEmpty() || !activeConfig.get().isActive()) {
@@ -92,77 +128,33 @@ public class AIAnalysisService {
 
         try {
             // Call LLM API directly with the prompt
-            return callLLMAPI(prompt);
+            return callLLMAPI(activeConfig.get(), prompt, bypassCache, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "Error analyzing submissions: interrupted";
         } catch (Exception e) {
             logger.error("Error analyzing submission text", e);
             return "Error analyzing submissions: " + e.getMessage();
         }
     }
 
-    private List<FileContent> readProjectFiles(String projectPath) throws IOException {
-        List<FileContent> files = new ArrayList<>();
-        Path basePath = Paths.get(projectPath).toAbsolutePath();
-        
-        if (!Files.exists(basePath)) {
-            throw new IOException("Project directory does not exist: " + basePath);
-        }
-
-        if (!Files.isDirectory(basePath)) {
-            throw new IOException("Path is not a directory: " + basePath);
-        }
-
-        logger.debug("Reading files from: {}", basePath);
-        
-        try (var paths = Files.walk(basePath)) {
-            paths.filter(Files::isRegularFile)
-                .filter(path -> isCodeFile(path.toString()))
-                .forEach(path -> {
-                    try {
-                        String content = Files.readString(path);
-                        String relativePath = basePath.relativize(path).toString();
-                        files.add(new FileContent(relativePath, content));
-                        logger.debug("Added file for analysis: {}", relativePath);
-                    } catch (IOException e) {
-                        logger.error("Error reading file: " + path, e);
-                    }
-                });
-        }
-        
-        return files;
-    }
-
-    private boolean isCodeFile(String path) {
-        String lowercasePath = path.toLowerCase();
-        return lowercasePath.endsWith(".java") || 
-               lowercasePath.endsWith(".py") || 
-               lowercasePath.endsWith(".js") || 
-               lowercasePath.endsWith(".jsx") || 
-               lowercasePath.endsWith(".ts") || 
-               lowercasePath.endsWith(".tsx") ||
-               lowercasePath.endsWith(".html") ||
-               lowercasePath.endsWith(".css");
+    record Completion(String content, Integer usedTokens) {
     }
 
-    private String buildAnalysisPrompt(List<FileContent> files) {
-        AIConfiguration config = configService.getActiveConfiguration()
-            .orElseThrow(() -> new RuntimeException("No active AI configuration found"));
-
-        StringBuilder prompt = new StringBuilder();
-        prompt.append(config.getAnalysisPrompt());
-        prompt.append("\n\n");
-
-        for (FileContent file : files) {
-            prompt.append("File: ").append(file.path).append("\n");
-            prompt.append("```\n").append(file.content).append("\n```\n\n");
+    private String callLLMAPI(AIConfiguration config, String prompt, boolean bypassCache, Consumer<String> onDelta)
+            throws Exception {
+        String cacheKey = responseCache.keyFor(config, prompt, bypassCache);
+        if (cacheKey != null) {
+            Optional<String> cached = responseCache.get(cacheKey);
+            if (cached.isPresent()) {
+                logger.info("LLM response served from cache");
+                if (onDelta != null) {
+                    onDelta.accept(cached.get());
+                }
+                return cached.get();
+            }
         }
 
-        return prompt.toString();
-    }
-
-    private String callLLMAPI(String prompt) throws Exception {
-        AIConfiguration config = configService.getActiveConfiguration()
-            .orElseThrow(() -> new RuntimeException("No active AI configuration found"));
-
         Map<String, Object> requestBody = new HashMap<>();
         requestBody.put("model", config.getModel());
         requestBody.put("messages", Arrays.asList(
@@ -171,41 +163,139 @@ public class AIAnalysisService {
         ));
         requestBody.put("temperature", config.getTemperature());
         requestBody.put("max_tokens", config.getMaxTokens());
+        if (onDelta != null) {
+            requestBody.put("stream", true);
+            // Otherwise a streamed response carries no token counts for the rate limiter
+            requestBody.put("stream_options", Map.of("include_usage", true));
+        }
 
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
         headers.setBearerAuth(aiConfig.getApiKey());
+        byte[] body = objectMapper.writeValueAsBytes(requestBody);
 
-        HttpEntity<String> requestEntity = new HttpEntity<>(
-            objectMapper.writeValueAsString(requestBody),
-            headers
-        );
-
-        ResponseEntity<Map> response = restTemplate.exchange(
-            aiConfig.getApiUrl(),
-            HttpMethod.POST,
-            requestEntity,
-            Map.class
-        );
-
-        if (response.getBody() != null && response.getBody().containsKey("choices")) {
-            List<Map<String, Object>> choices = (List<Map<String, Object>>) response.getBody().get("choices");
-            if (!choices.isEmpty()) {
-                Map<String, Object> message = (Map<String, Object>) choices.get(0).get("message");
-                return (String) message.get("content");
-            }
+        // Prompt estimate plus the completion the model may return
+        int estimatedTokens = PromptBuilder.estimateTokens(config.getSystemPrompt().length() + prompt.length())
+                + (config.getMaxTokens() == null ? 0 : config.getMaxTokens());
+        Completion completion;
+        if (onDelta == null) {
+            HttpEntity<byte[]> requestEntity = new HttpEntity<>(body, headers);
+            completion = withRetry(config, estimatedTokens,
+                    () -> parseCompletion(restTemplate.exchange(aiConfig.getApiUrl(), HttpMethod.POST, requestEntity, Map.class).getBody()),
+                    () -> true);
+        } else {
+            headers.setAccept(List.of(MediaType.TEXT_EVENT_STREAM));
+            AtomicBoolean relayed = new AtomicBoolean();
+            Consumer<String> relay = delta -> {
+                relayed.set(true);
+                onDelta.accept(delta);
+            };
+            completion = withRetry(config, estimatedTokens,
+                    () -> restTemplate.execute(aiConfig.getApiUrl(), HttpMethod.POST, request -> {
+                        request.getHeaders().putAll(headers);
+                        request.getBody().write(body);
+                    }, response -> readStream(response.getBody(), relay)),
+                    // Once text has reached the client a second attempt would repeat it
+                    () -> !relayed.get());
         }
 
-        throw new Exception("Invalid API response");
+        if (completion == null || completion.content() == null || completion.content().isEmpty()) {
+            throw new Exception("Invalid API response");
+        }
+        if (completion.usedTokens() != null) {
+            rateLimiter.recordUsage(estimatedTokens, completion.usedTokens());
+        }
+        if (cacheKey != null) {
+            responseCache.put(cacheKey, config.getModel(), completion.content(), completion.usedTokens());
+        }
+        return completion.content();
     }
 
-    private static class FileContent {
-        String path;
-        String content;
+    private static Completion parseCompletion(Map<?, ?> body) {
+        if (body == null || !(body.get("choices") instanceof List<?> choices) || choices.isEmpty()
+                || !(choices.get(0) instanceof Map<?, ?> choice) || !(choice.get("message") instanceof Map<?, ?> message)) {
+            return null;
+        }
+        Integer usedTokens = null;
+        if (body.get("usage") instanceof Map<?, ?> usage && usage.get("total_tokens") instanceof Number totalTokens) {
+            usedTokens = totalTokens.intValue();
+        }
+        return new Completion((String) message.get("content"), usedTokens);
+    }
 
-        FileContent(String path, String content) {
-            this.path = path;
-            this.content = content;
+    /**
+     * Reads an OpenAI-style event stream: one "data:" line per chunk with a piece of the message in
+     * choices[0].delta.content, a last chunk with the usage, then "data: [DONE]". Only the text itself is
+     * kept, so memory grows with the completion and not with the size of the stream.
+     */
+    Completion readStream(InputStream body, Consumer<String> onDelta) throws IOException {
+        StringBuilder content = new StringBuilder();
+        Integer usedTokens = null;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            // Blank lines separate events; comments and event names carry no text
+            if (!line.startsWith("data:")) {
+                continue;
+            }
+            String data = line.substring(5).trim();
+            if (data.equals("[DONE]")) {
+                break;
+            }
+            JsonNode chunk = objectMapper.readTree(data);
+            if (chunk.has("error")) {
+                throw new IllegalStateException("LLM API stream failed: " + chunk.path("error").path("message").asText());
+            }
+            JsonNode delta = chunk.path("choices").path(0).path("delta").path("content");
+            if (delta.isTextual() && !delta.asText().isEmpty()) {
+                content.append(delta.asText());
+                onDelta.accept(delta.asText());
+            }
+            if (chunk.path("usage").path("total_tokens").isNumber()) {
+                usedTokens = chunk.path("usage").path("total_tokens").asInt();
+            }
         }
+        return new Completion(content.toString(), usedTokens);
     }
-} 
\ No newline at end of file
+
+    // Retries rate limiting (429), server errors and I/O failures with exponential backoff and full jitter,
+    // as long as retryable still allows it
+    private <T> T withRetry(AIConfiguration config, int estimatedTokens, Supplier<T> call,
+                            BooleanSupplier retryable) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            rateLimiter.acquire(config, estimatedTokens);
+            long retryAfterMillis = 0;
+            try {
+                return call.get();
+            } catch (HttpStatusCodeException e) {
+                int status = e.getStatusCode().value();
+                if ((status != 429 && status < 500) || attempt >= maxAttempts || !retryable.getAsBoolean()) {
+                    throw e;
+                }
+                retryAfterMillis = retryAfterMillis(e.getResponseHeaders());
+                logger.warn("LLM API returned {} (attempt {}/{})", status, attempt, maxAttempts);
+            } catch (ResourceAccessException e) {
+                if (attempt >= maxAttempts || !retryable.getAsBoolean()) {
+                    throw e;
+                }
+                logger.warn("LLM API request failed (attempt {}/{}): {}", attempt, maxAttempts, e.getMessage());
+            }
+            long ceiling = Math.min(retryMaxDelayMillis, retryBaseDelayMillis << Math.min(attempt - 1, 20));
+            Thread.sleep(Math.max(retryAfterMillis, ThreadLocalRandom.current().nextLong(ceiling + 1)));
+        }
+    }
+
+    private long retryAfterMillis(HttpHeaders headers) {
+        String retryAfter = headers == null ? null : headers.getFirst(HttpHeaders.RETRY_AFTER);
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return Math.min(retryMaxDelayMillis, Long.parseLong(retryAfter.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            // HTTP-date form; fall back to the computed backoff
+            return 0;
+        }
+    }
+
+}
\ No newline at end of file
@@ -6,18 +6,29 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
-
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * AI configurations are kept in memory as an immutable snapshot and swapped atomically on every change,
+ * so reads never touch the disk. The JSON file stays the source of truth: writes replace it atomically
+ * (temp file + rename) and edits made to it outside the application are picked up by a periodic check of
+ * its modification time. Returned configurations belong to the snapshot and must not be modified.
+ */
 @Service
 public class AIConfigurationService {
     private static final Logger logger = LoggerFactory.getLogger(AIConfigurationService.class);
@@ -25,6 +36,7 @@ public class AIConfigurationService {
     private static final String DEFAULT_CONFIG_FILE = "default-ai-config.json";
     private final ObjectMapper objectMapper;
     private final Path configPath;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(new Snapshot(List.of(), null));
 
     public AIConfigurationService(ObjectMapper objectMapper) {
         this.objectMapper = objectMapper;
@@ -43,6 +55,8 @@ public class AIConfigurationService {
                 ClassPathResource defaultConfig = new ClassPathResource(DEFAULT_CONFIG_FILE);
                 ConfigWrapper configWrapper = objectMapper.readValue(defaultConfig.getInputStream(), ConfigWrapper.class);
                 saveConfigurations(configWrapper.getConfigurations());
+            } else {
+                reloadIfChanged();
             }
         } catch (IOException e) {
             logger.error("Failed to initialize configurations", e);
@@ -51,16 +65,14 @@ public class AIConfigurationService {
     }
 
     public List<AIConfiguration> getAllConfigurations() {
-        try {
-            return Files.exists(configPath) ?
-                   objectMapper.readValue(configPath.toFile(), new TypeReference<List<AIConfiguration>>() {}) :
-                   new ArrayList<>();
-        } catch (IOException e) {
-            logger.error("Failed to read configurations", e);
-            return new ArrayList<>();
-        }
+        return snapshot.get().configurations();
     }
 
+    /**
+     * The active configuration at the time of the call. Callers doing several steps with it (building a
+     * prompt, then calling the model) should fetch it once and pass it along, so a concurrent change
+     * cannot mix two configurations in one request.
+     */
     public Optional<AIConfiguration> getActiveConfiguration() {
         return getAllConfigurations().stream()
                 .filter(AIConfiguration::isActive)
@@ -68,38 +80,44 @@ public class AIConfigurationService {
     }
 
     public AIConfiguration createConfiguration(AIConfiguration config) {
-        List<AIConfiguration> configs = getAllConfigurations();
-        
+        AIConfiguration created = new AIConfiguration(config);
         // Generate new ID if not provided
-        if (config.getId() == null) {
-            config.setId(UUID.randomUUID().toString());
-        }
-
-        // If this config is active, deactivate all others
-        if (config.isActive()) {
-            configs.forEach(c -> c.setActive(false));
+        if (created.getId() == null) {
+            created.setId(UUID.randomUUID().toString());
         }
 
-        configs.add(config);
-        saveConfigurations(configs);
-        return config;
+        modify(configs -> {
+            // If this config is active, deactivate all others
+            if (created.isActive()) {
+                configs.forEach(c -> c.setActive(false));
+            }
+            configs.add(created);
+            return true;
+        });
+        return created;
     }
 
     public Optional<AIConfiguration> updateConfiguration(String id, AIConfiguration updatedConfig) {
-        List<AIConfiguration> configs = getAllConfigurations();
-        
-        Optional<AIConfiguration> existingConfig = configs.stream()
-                .filter(c -> c.getId().equals(id))
-                .findFirst();
+        AtomicReference<AIConfiguration> result = new AtomicReference<>();
+        modify(configs -> {
+            Optional<AIConfiguration> existingConfig = configs.stream()
+                    .filter(c -> c.getId().equals(id))
+                    .findFirst();
+            if (existingConfig.isEmpty()) {
+                return false;
+            }
 
-        if (existingConfig.isPresent()) {
             AIConfiguration config = existingConfig.get();
             config.setModel(updatedConfig.getModel());
             config.setSystemPrompt(updatedConfig.getSystemPrompt());
             config.setAnalysisPrompt(updatedConfig.getAnalysisPrompt());
             config.setTemperature(updatedConfig.getTemperature());
             config.setMaxTokens(updatedConfig.getMaxTokens());
-            
+            config.setRequestsPerMinute(updatedConfig.getRequestsPerMinute());
+            config.setTokensPerMinute(updatedConfig.getTokensPerMinute());
+            config.setContextWindow(updatedConfig.getContextWindow());
+            config.setCacheResponses(updatedConfig.getCacheResponses());
+
             // If this config is being activated, deactivate all others
             if (updatedConfig.isActive()) {
                 configs.forEach(c -> c.setActive(false));
@@ -107,51 +125,91 @@ public class AIConfigurationService {
             } else {
                 config.setActive(false);
             }
-
-            saveConfigurations(configs);
-            return Optional.of(config);
-        }
-
-        return Optional.empty();
+            result.set(config);
+            return true;
+        });
+        return Optional.ofNullable(result.get());
     }
 
     public boolean deleteConfiguration(String id) {
-        List<AIConfiguration> configs = getAllConfigurations();
-        boolean removed = configs.removeIf(c -> c.getId().equals(id));
-        if (removed) {
-            saveConfigurations(configs);
-        }
-        return removed;
+        return modify(configs -> configs.removeIf(c -> c.getId().equals(id)));
     }
 
     public boolean setActiveConfiguration(String id) {
-        List<AIConfiguration> configs = getAllConfigurations();
-        
-        Optional<AIConfiguration> targetConfig = configs.stream()
-                .filter(c -> c.getId().equals(id))
-                .findFirst();
-
-        if (targetConfig.isPresent()) {
+        return modify(configs -> {
+            Optional<AIConfiguration> targetConfig = configs.stream()
+                    .filter(c -> c.getId().equals(id))
+                    .findFirst();
+            if (targetConfig.isEmpty()) {
+                return false;
+            }
             // Deactivate all configurations
             configs.forEach(c -> c.setActive(false));
             // Activate the target configuration
             targetConfig.get().setActive(true);
-            saveConfigurations(configs);
             return true;
+        });
+    }
+
+    // Picks up edits made to the file by hand or by another instance sharing it
+    @Scheduled(fixedDelayString = "${ai.config.reload-interval-ms}")
+    public void reloadIfChanged() {
+        try {
+            synchronized (this) {
+                if (!Files.exists(configPath)) {
+                    return;
+                }
+                FileTime modified = Files.getLastModifiedTime(configPath);
+                if (modified.equals(snapshot.get().modified())) {
+                    return;
+                }
+                List<AIConfiguration> configs = objectMapper.readValue(configPath.toFile(), new TypeReference<List<AIConfiguration>>() {});
+                snapshot.set(new Snapshot(List.copyOf(configs), modified));
+                logger.info("Loaded {} AI configurations from {}", configs.size(), configPath);
+            }
+        } catch (IOException e) {
+            // Keep serving the last good snapshot
+            logger.error("Failed to read configurations", e);
         }
+    }
 
-        return false;
+    /**
+     * Applies change to a private copy of the configurations and, if it reports a change, persists the copy
+     * and swaps it in. Writers are serialized; readers keep seeing the previous snapshot until the swap.
+     */
+    private synchronized boolean modify(Function<List<AIConfiguration>, Boolean> change) {
+        List<AIConfiguration> configs = new ArrayList<>();
+        snapshot.get().configurations().forEach(c -> configs.add(new AIConfiguration(c)));
+        if (!change.apply(configs)) {
+            return false;
+        }
+        saveConfigurations(configs);
+        return true;
     }
 
-    private void saveConfigurations(List<AIConfiguration> configs) {
+    private synchronized void saveConfigurations(List<AIConfiguration> configs) {
         try {
-            objectMapper.writeValue(configPath.toFile(), configs);
+            Path temp = Files.createTempFile(configPath.getParent(), CONFIG_FILE, ".tmp");
+            try {
+                objectMapper.writeValue(temp.toFile(), configs);
+                try {
+                    Files.move(temp, configPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, configPath, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            snapshot.set(new Snapshot(List.copyOf(configs), Files.getLastModifiedTime(configPath)));
         } catch (IOException e) {
             logger.error("Failed to save configurations", e);
             throw new RuntimeException("Failed to save configurations", e);
         }
     }
 
+    private record Snapshot(List<AIConfiguration> configurations, FileTime modified) {
+    }
+
     // Wrapper class for the default configuration JSON structure
     private static class ConfigWrapper {
         private List<AIConfiguration> configurations;
@@ -164,4 +222,4 @@ public class AIConfigurationService {
             this.configurations = configurations;
         }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,171 @@
+package com.davidwilson.delphi.services;
+
+import com.davidwilson.delphi.entities.Submissions;
+import com.davidwilson.delphi.repositories.SubmissionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Generates AI feedback for graded submissions, separately from grading. A submission's grade is
+ * published first with ai_status "Pending"; the analysis then runs on the bounded analysis executor.
+ * The ai_status column is the durable queue: a row is claimed by moving it from Pending to Running, and
+ * rows that were never started (queue full, restart) are picked up again by the recovery sweep.
+ */
+@Service
+public class AnalysisQueueService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AnalysisQueueService.class);
+    private static final String HOST_DIR = "uploads";
+    private static final String ANALYSIS_DIR = "analysis";
+    private static final int RECOVERY_BATCH = 100;
+
+    private final SubmissionRepository submissionRepository;
+    private final AIAnalysisService aiAnalysisService;
+    private final ZipExtractor zipExtractor;
+    private final FileUploadService fileUploadService;
+    private final FeedbackStreamService feedbackStreamService;
+    private final Executor analysisExecutor;
+    private final long staleMillis;
+    private final boolean streaming;
+
+    // Submissions handed to the local executor and not finished yet
+    private final Set<UUID> queued = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public AnalysisQueueService(SubmissionRepository submissionRepository, AIAnalysisService aiAnalysisService,
+                                ZipExtractor zipExtractor, FileUploadService fileUploadService,
+                                FeedbackStreamService feedbackStreamService,
+                                @Qualifier("analysisExecutor") Executor analysisExecutor,
+                                @Value("${ai.analysis.stale-seconds}") long staleSeconds,
+                                @Value("${ai.stream.enabled}") boolean streaming) {
+        this.submissionRepository = submissionRepository;
+        this.aiAnalysisService = aiAnalysisService;
+        this.zipExtractor = zipExtractor;
+        this.fileUploadService = fileUploadService;
+        this.feedbackStreamService = feedbackStreamService;
+        this.analysisExecutor = analysisExecutor;
+        this.staleMillis = staleSeconds * 1000;
+        this.streaming = streaming;
+    }
+
+    /**
+     * Schedules analysis of a submission whose row has already been saved with ai_status "Pending".
+     */
+    public void enqueue(UUID submissionId) {
+        if (!queued.add(submissionId)) {
+            return;
+        }
+        try {
+            analysisExecutor.execute(() -> analyze(submissionId));
+        } catch (TaskRejectedException e) {
+            // Still Pending in the database; the recovery sweep schedules it once there is room
+            queued.remove(submissionId);
+            logger.warn("Analysis queue is full; submission {} will be analyzed later", submissionId);
+        }
+    }
+
+    public int getQueuedCount() {
+        return queued.size();
+    }
+
+    public long getPendingCount() {
+        return submissionRepository.countByAiStatus("Pending");
+    }
+
+    private void analyze(UUID submissionId) {
+        Path workDir = Paths.get("").toAbsolutePath().resolve(HOST_DIR).resolve(ANALYSIS_DIR).resolve(submissionId.toString());
+        Timestamp claimedAt = now();
+        try {
+            if (submissionRepository.claimAnalysis(submissionId, claimedAt) == 0) {
+                // Already claimed by another instance, or no longer pending
+                return;
+            }
+            Optional<Submissions> submission = submissionRepository.findById(submissionId);
+            if (submission.isEmpty()) {
+                return;
+            }
+            feedbackStreamService.start(submissionId);
+            if (!aiAnalysisService.isEnabled()) {
+                complete(submissionId, claimedAt, "AI analysis is disabled", "Disabled");
+                return;
+            }
+
+            // Only the code files are needed; the grading workspace may already be gone or on another instance
+            Path zipFile = fileUploadService.locate(submission.get());
+            FileSystemUtils.deleteRecursively(workDir);
+            zipExtractor.extract(zipFile, workDir, ZipExtractor.CODE_FILES);
+
+            // With streaming on, clients following the submission see the feedback as the model writes it
+            String analysis = aiAnalysisService.analyzeCode(workDir.toString(), submission.get().getFileName().replace(".zip", ""),
+                    streaming ? delta -> feedbackStreamService.append(submissionId, delta) : null);
+            if (analysis == null) {
+                complete(submissionId, claimedAt, "AI analysis is disabled", "Disabled");
+            } else {
+                String status = analysis.startsWith("Error") ? "Failed" : "Completed";
+                complete(submissionId, claimedAt, analysis, status);
+            }
+            logger.info("AI analysis finished for submission {}", submissionId);
+        } catch (Exception e) {
+            logger.error("Error analyzing submission {}", submissionId, e);
+            complete(submissionId, claimedAt, "Error analyzing code: " + e.getMessage(), "Failed");
+        } finally {
+            try {
+                FileSystemUtils.deleteRecursively(workDir);
+            } catch (IOException e) {
+                logger.error("Error cleaning up analysis directory {}: {}", workDir, e.getMessage());
+            }
+            queued.remove(submissionId);
+        }
+    }
+
+    // The final text is written to the row in one update, then handed to any stream subscribers
+    private void complete(UUID submissionId, Timestamp claimedAt, String output, String status) {
+        boolean superseded = false;
+        try {
+            superseded = submissionRepository.completeAnalysis(submissionId, claimedAt, output, status, now()) == 0;
+            if (superseded) {
+                logger.warn("Analysis of submission {} went stale and was claimed again; discarding this result", submissionId);
+            }
+        } finally {
+            // The run that took over reports to subscribers itself
+            if (!superseded) {
+                feedbackStreamService.finish(submissionId, status, output);
+            }
+        }
+    }
+
+    // Also runs at startup, which resumes analyses that were pending when the instance stopped
+    @Scheduled(fixedDelayString = "${ai.analysis.recovery-interval-ms}")
+    public void recoverPendingAnalyses() {
+        Timestamp now = now();
+        int requeued = submissionRepository.requeueStaleAnalyses(new Timestamp(now.getTime() - staleMillis), now);
+        if (requeued > 0) {
+            logger.warn("Re-queued {} stale AI analyses", requeued);
+        }
+        List<UUID> pending = submissionRepository.findPendingAnalysisIds(PageRequest.of(0, RECOVERY_BATCH));
+        pending.forEach(this::enqueue);
+    }
+
+    private static Timestamp now() {
+        return new Timestamp(System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,143 @@
+package com.davidwilson.delphi.services;
+
+import com.davidwilson.delphi.repositories.BlobRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.UUID;
+
+/**
+ * Content-addressed storage for uploaded archives under uploads/blobs/ab/abcd....zip. The digest is
+ * computed while the upload is written, so storing an archive reads it once. Blobs are immutable;
+ * a second upload of the same bytes only adds a reference.
+ */
+@Service
+public class BlobStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlobStore.class);
+    private static final String BLOBS_DIR = "blobs";
+    private static final String TMP_DIR = "tmp";
+    private static final String EXTENSION = ".zip";
+
+    private final BlobRepository blobRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Path root;
+
+    public BlobStore(BlobRepository blobRepository, TransactionTemplate transactionTemplate,
+                     @Value("${file.upload-dir}") String uploadDir) {
+        this.blobRepository = blobRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.root = Paths.get(uploadDir).toAbsolutePath().normalize().resolve(BLOBS_DIR);
+    }
+
+    public record StoredBlob(String digest, long size) {
+    }
+
+    /**
+     * Writes the stream to a temporary file while hashing it, then moves it to its digest path unless
+     * that blob already exists. The caller owns one reference and must release it if it does not keep it.
+     */
+    public StoredBlob store(InputStream in) throws IOException {
+        Path tmp = newTempFile();
+        try {
+            MessageDigest digest = sha256();
+            long size;
+            try (InputStream source = new DigestInputStream(in, digest);
+                 OutputStream out = Files.newOutputStream(tmp)) {
+                size = source.transferTo(out);
+            }
+            return commit(tmp, HexFormat.of().formatHex(digest.digest()), size);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Same as store for a file already written and hashed inside the store's temporary directory,
+     * such as an assembled chunked upload. The file is moved into place, never copied.
+     */
+    public StoredBlob adopt(Path file, String digest, long size) throws IOException {
+        try {
+            return commit(file, digest, size);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    public Path resolve(String digest) {
+        return root.resolve(digest.substring(0, 2)).resolve(digest + EXTENSION);
+    }
+
+    // Adds a reference for a new holder of a blob the caller already references, such as a submission row
+    public void retain(String digest) {
+        if (blobRepository.retain(digest) == 0) {
+            throw new IllegalStateException("Blob " + digest + " is not referenced");
+        }
+    }
+
+    /**
+     * Drops one reference; the last one deletes the file. The row stays locked until the file is gone,
+     * so a concurrent store of the same bytes waits and then writes the file again. The transaction is
+     * programmatic so that commit's own calls get it too, and it joins the caller's when there is one.
+     */
+    public void release(String digest) {
+        transactionTemplate.executeWithoutResult(status -> {
+            if (blobRepository.decrement(digest) == 0 || blobRepository.deleteIfUnreferenced(digest) == 0) {
+                return;
+            }
+            try {
+                Files.deleteIfExists(resolve(digest));
+                logger.info("Deleted unreferenced blob {}", digest);
+            } catch (IOException e) {
+                logger.warn("Could not delete blob {}: {}", digest, e.getMessage());
+            }
+        });
+    }
+
+    public Path newTempFile() throws IOException {
+        Path tmpDir = Files.createDirectories(root.resolve(TMP_DIR));
+        return tmpDir.resolve(UUID.randomUUID() + ".part");
+    }
+
+    private StoredBlob commit(Path tmp, String digest, long size) throws IOException {
+        blobRepository.acquire(digest, size);
+        Path target = resolve(digest);
+        if (Files.exists(target)) {
+            logger.debug("Blob {} already stored", digest);
+            return new StoredBlob(digest, size);
+        }
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // Another upload of the same bytes got there first; its copy is identical
+        } catch (IOException e) {
+            release(digest);
+            throw e;
+        }
+        return new StoredBlob(digest, size);
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.davidwilson.delphi.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resumable uploads in fixed-size chunks, in the style of the tus protocol. Each chunk is written at
+ * its offset in one temporary file, so chunks may arrive in any order and in parallel, and a broken
+ * connection only costs the chunk in flight. Once every chunk is in, the file is hashed, checked and
+ * moved into the BlobStore. Sessions live in memory on the instance that created them, so requests for
+ * a session must be routed back to that instance.
+ */
+@Service
+public class ChunkedUploadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedUploadService.class);
+    private static final byte[] ZIP_MAGIC = {'P', 'K', 3, 4};
+    private static final byte[] EMPTY_ZIP_MAGIC = {'P', 'K', 5, 6};
+
+    private final BlobStore blobStore;
+    private final int chunkSize;
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final Map<UUID, UploadSession> sessions = new ConcurrentHashMap<>();
+
+    public ChunkedUploadService(BlobStore blobStore,
+                                @Value("${upload.chunk-size-bytes}") int chunkSize,
+                                @Value("${upload.max-bytes}") long maxBytes,
+                                @Value("${upload.session-ttl-minutes}") long ttlMinutes) {
+        this.blobStore = blobStore;
+        this.chunkSize = chunkSize;
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMinutes * 60_000;
+    }
+
+    public static class UploadSession {
+        private final UUID id = UUID.randomUUID();
+        private final String userId;
+        private final UUID assignmentId;
+        private final String fileName;
+        private final long length;
+        private final int chunkSize;
+        private final String expectedDigest;
+        private final Path file;
+        private final BitSet received = new BitSet();
+        private volatile long lastActivity = System.currentTimeMillis();
+        // Set once assembled; the session holds a reference to this blob until it is queued or aborted
+        private BlobStore.StoredBlob blob;
+        private UUID submissionId;
+        // Chunks being written right now; assembly waits for them and no new ones start meanwhile
+        private int writing;
+        private boolean assembling;
+
+        UploadSession(String userId, UUID assignmentId, String fileName, long length, int chunkSize,
+                      String expectedDigest, Path file) {
+            this.userId = userId;
+            this.assignmentId = assignmentId;
+            this.fileName = fileName;
+            this.length = length;
+            this.chunkSize = chunkSize;
+            this.expectedDigest = expectedDigest;
+            this.file = file;
+        }
+
+        public UUID getId() {
+            return id;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public UUID getAssignmentId() {
+            return assignmentId;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        public synchronized UUID getSubmissionId() {
+            return submissionId;
+        }
+
+        int chunkCount() {
+            return (int) ((length + chunkSize - 1) / chunkSize);
+        }
+
+        long chunkLength(int index) {
+            return Math.min(chunkSize, length - (long) index * chunkSize);
+        }
+
+        synchronized boolean isComplete() {
+            return received.cardinality() == chunkCount();
+        }
+
+        // Bytes received without a gap from the start; what a tus client resumes from
+        public synchronized long getOffset() {
+            int firstMissing = received.nextClearBit(0);
+            return Math.min(length, (long) firstMissing * chunkSize);
+        }
+
+        public synchronized List<Long> getMissingOffsets() {
+            List<Long> missing = new ArrayList<>();
+            for (int i = received.nextClearBit(0); i < chunkCount(); i = received.nextClearBit(i + 1)) {
+                missing.add((long) i * chunkSize);
+            }
+            return missing;
+        }
+    }
+
+    public UploadSession create(String userId, UUID assignmentId, String fileName, long length, String sha256)
+            throws IOException {
+        if (length <= 0 || length > maxBytes) {
+            throw new IllegalArgumentException("Upload length must be between 1 and " + maxBytes + " bytes");
+        }
+        if (sha256 != null && !sha256.matches("[0-9a-fA-F]{64}")) {
+            throw new IllegalArgumentException("sha256 must be 64 hex characters");
+        }
+        Path file = blobStore.newTempFile();
+        Files.createFile(file);
+        UploadSession session = new UploadSession(userId, assignmentId, fileName, length, chunkSize,
+                sha256 == null ? null : sha256.toLowerCase(), file);
+        sessions.put(session.getId(), session);
+        logger.info("Started chunked upload {} of {} ({} bytes) for user {}", session.getId(), fileName, length, userId);
+        return session;
+    }
+
+    // Only the user who started an upload can see or touch it
+    public UploadSession get(UUID id, String userId) {
+        UploadSession session = sessions.get(id);
+        if (session == null || !session.getUserId().equals(userId)) {
+            throw new NoSuchElementException("Unknown upload " + id);
+        }
+        return session;
+    }
+
+    /**
+     * Writes one chunk at its offset. The chunk must start on a chunk boundary and be exactly one chunk
+     * long (shorter only at the end). A tus-style "sha256 base64" checksum, if given, is checked before
+     * the chunk counts as received. Returns true once every chunk has been received.
+     */
+    public boolean writeChunk(UploadSession session, long offset, InputStream body, String checksum) throws IOException {
+        if (offset < 0 || offset >= session.length || offset % session.chunkSize != 0) {
+            throw new IllegalArgumentException("Offset " + offset + " is not the start of a chunk");
+        }
+        synchronized (session) {
+            if (session.blob != null || session.submissionId != null) {
+                throw new IllegalStateException("Upload " + session.getId() + " is already complete");
+            }
+            if (session.assembling) {
+                throw new IllegalStateException("Upload " + session.getId() + " is being assembled");
+            }
+            session.writing++;
+            session.lastActivity = System.currentTimeMillis();
+        }
+        try {
+            return writeChunkBody(session, offset, body, checksum);
+        } finally {
+            synchronized (session) {
+                session.writing--;
+                session.notifyAll();
+            }
+        }
+    }
+
+    private boolean writeChunkBody(UploadSession session, long offset, InputStream body, String checksum) throws IOException {
+        int index = (int) (offset / session.chunkSize);
+        long expected = session.chunkLength(index);
+        MessageDigest digest = checksum == null ? null : BlobStore.sha256();
+        InputStream in = digest == null ? body : new DigestInputStream(body, digest);
+
+        try (FileChannel channel = FileChannel.open(session.file, StandardOpenOption.WRITE);
+             ReadableByteChannel source = Channels.newChannel(in)) {
+            long written = 0;
+            while (written < expected) {
+                long n = channel.transferFrom(source, offset + written, expected - written);
+                if (n <= 0) {
+                    break;
+                }
+                written += n;
+            }
+            if (written != expected || body.read() != -1) {
+                throw new IllegalArgumentException("Chunk at offset " + offset + " must be exactly " + expected + " bytes");
+            }
+        }
+        if (digest != null && !checksumMatches(checksum, digest.digest())) {
+            throw new ChecksumMismatchException("Checksum mismatch for chunk at offset " + offset);
+        }
+
+        synchronized (session) {
+            session.received.set(index);
+            session.lastActivity = System.currentTimeMillis();
+            return session.isComplete();
+        }
+    }
+
+    /**
+     * Hashes the finished file, checks it against the digest given at creation and that it is a zip,
+     * and moves it into the BlobStore. Safe to call again; later calls return the same blob.
+     */
+    public BlobStore.StoredBlob assemble(UploadSession session) throws IOException {
+        synchronized (session) {
+            if (session.blob != null) {
+                return session.blob;
+            }
+            if (session.submissionId != null) {
+                throw new IllegalStateException("Upload " + session.getId() + " has already been queued");
+            }
+            session.assembling = true;
+            try {
+                return assembleWritten(session);
+            } finally {
+                session.assembling = false;
+            }
+        }
+    }
+
+    // Called holding the session's lock with assembling set, so the file can no longer change under the hash
+    private BlobStore.StoredBlob assembleWritten(UploadSession session) throws IOException {
+        while (session.writing > 0) {
+            try {
+                session.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for chunks of upload " + session.getId());
+            }
+        }
+        if (!session.isComplete()) {
+            throw new IllegalStateException("Upload " + session.getId() + " is missing " + session.getMissingOffsets().size() + " chunks");
+        }
+        MessageDigest digest = BlobStore.sha256();
+        byte[] head = new byte[4];
+        try (InputStream in = new DigestInputStream(Files.newInputStream(session.file), digest)) {
+            int headLength = in.readNBytes(head, 0, head.length);
+            in.transferTo(OutputStream.nullOutputStream());
+            if (headLength < head.length || !(startsWith(head, ZIP_MAGIC) || startsWith(head, EMPTY_ZIP_MAGIC))) {
+                abort(session);
+                throw new IllegalArgumentException("Upload " + session.getId() + " is not a zip archive");
+            }
+        }
+        String hex = HexFormat.of().formatHex(digest.digest());
+        if (session.expectedDigest != null && !session.expectedDigest.equals(hex)) {
+            abort(session);
+            throw new ChecksumMismatchException("Upload " + session.getId() + " does not match its sha256");
+        }
+        session.blob = blobStore.adopt(session.file, hex, session.length);
+        session.lastActivity = System.currentTimeMillis();
+        logger.info("Assembled chunked upload {} into blob {}", session.getId(), hex);
+        return session.blob;
+    }
+
+    // The submission holds its own blob reference, so the session drops its one; the session itself stays
+    // until it expires so retries see the result
+    public void finish(UploadSession session, UUID submissionId) {
+        synchronized (session) {
+            blobStore.release(session.blob.digest());
+            session.blob = null;
+            session.submissionId = submissionId;
+            session.lastActivity = System.currentTimeMillis();
+        }
+    }
+
+    public void abort(UploadSession session) {
+        synchronized (session) {
+            sessions.remove(session.getId());
+            if (session.blob != null) {
+                blobStore.release(session.blob.digest());
+            }
+            try {
+                Files.deleteIfExists(session.file);
+            } catch (IOException e) {
+                logger.warn("Could not delete upload file {}: {}", session.file, e.getMessage());
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${upload.cleanup-interval-ms}")
+    public void expireSessions() {
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        for (UploadSession session : sessions.values()) {
+            if (session.lastActivity < cutoff) {
+                logger.info("Discarding idle chunked upload {}", session.getId());
+                abort(session);
+            }
+        }
+    }
+
+    private static boolean checksumMatches(String header, byte[] actual) {
+        String[] parts = header.trim().split("\\s+");
+        if (parts.length != 2 || !parts[0].equalsIgnoreCase("sha256")) {
+            throw new IllegalArgumentException("Upload-Checksum must be \"sha256 <base64>\"");
+        }
+        return MessageDigest.isEqual(Base64.getDecoder().decode(parts[1]), actual);
+    }
+
+    private static boolean startsWith(byte[] head, byte[] magic) {
+        for (int i = 0; i < magic.length; i++) {
+            if (head[i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static class ChecksumMismatchException extends IllegalArgumentException {
+        public ChecksumMismatchException(String message) {
+            super(message);
+        }
+    }
+}
@@ -2,45 +2,248 @@ package com.davidwilson.delphi.services;
 
 import com.davidwilson.delphi.entities.Submissions;
 import com.davidwilson.delphi.repositories.AssignmentRepository;
+import com.davidwilson.delphi.repositories.LatestSubmissionRepository;
 import com.davidwilson.delphi.repositories.SubmissionRepository;
 import com.davidwilson.delphi.repositories.TestCaseRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import jakarta.annotation.PostConstruct;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Durable grading queue backed by the submissions table. A submission is queued while its status is
+ * "Pending"; workers on any backend instance claim rows with SELECT ... FOR UPDATE SKIP LOCKED and hold
+ * a lease while grading. Leases are renewed while the work is in flight, so a row whose lease has expired
+ * belongs to a crashed instance and is put back in the queue.
+ */
 @Service
 public class ExecutionQueueService {
 
-    private final BlockingQueue<Submissions> submissionQueue = new LinkedBlockingQueue<>();
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionQueueService.class);
+
+    // Used for ETA estimates until the first submission has been graded
+    private static final long DEFAULT_GRADING_MILLIS = 15_000;
+
     private final SubmissionRepository submissionRepository;
+    private final LatestSubmissionRepository latestSubmissionRepository;
     private final FileExecutionService fileExecutionService;
     private final AssignmentRepository assignmentRepository;
     private final TestCaseRepository testCaseRepository;
+    private final GradingStageLimiter stageLimiter;
+    private final GradingCacheService gradingCacheService;
+    private final AnalysisQueueService analysisQueueService;
+    private final TransactionTemplate transactionTemplate;
+    private final Executor submissionExecutor;
+    private final int workers;
+    private final int queueCapacity;
+    private final String instanceId;
+    private final long leaseMillis;
+    private final int maxAttempts;
+    private final long pollIntervalMillis;
 
-    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    private final Set<UUID> inFlight = ConcurrentHashMap.newKeySet();
+    private final Semaphore workSignal = new Semaphore(0);
+    private final AtomicLong averageGradingMillis = new AtomicLong(DEFAULT_GRADING_MILLIS);
 
     @Autowired
     public ExecutionQueueService(SubmissionRepository submissionRepository,
+                                 LatestSubmissionRepository latestSubmissionRepository,
                                  FileExecutionService fileExecutionService,
-                                 AssignmentRepository assignmentRepository, TestCaseRepository testCaseRepository) {
+                                 AssignmentRepository assignmentRepository, TestCaseRepository testCaseRepository,
+                                 GradingStageLimiter stageLimiter, GradingCacheService gradingCacheService,
+                                 AnalysisQueueService analysisQueueService,
+                                 TransactionTemplate transactionTemplate,
+                                 @Qualifier("submissionExecutor") Executor submissionExecutor,
+                                 @Value("${submission.executor.workers}") int workers,
+                                 @Value("${submission.queue.capacity}") int queueCapacity,
+                                 @Value("${submission.queue.instance-id:}") String instanceId,
+                                 @Value("${submission.queue.lease-seconds}") long leaseSeconds,
+                                 @Value("${submission.queue.max-attempts}") int maxAttempts,
+                                 @Value("${submission.queue.poll-interval-ms}") long pollIntervalMillis) {
         this.submissionRepository = submissionRepository;
+        this.latestSubmissionRepository = latestSubmissionRepository;
         this.fileExecutionService = fileExecutionService;
         this.assignmentRepository = assignmentRepository;
         this.testCaseRepository = testCaseRepository;
+        this.stageLimiter = stageLimiter;
+        this.gradingCacheService = gradingCacheService;
+        this.analysisQueueService = analysisQueueService;
+        this.transactionTemplate = transactionTemplate;
+        this.submissionExecutor = submissionExecutor;
+        this.workers = workers;
+        this.queueCapacity = queueCapacity;
+        this.instanceId = instanceId.isBlank() ? defaultInstanceId() : instanceId;
+        this.leaseMillis = leaseSeconds * 1000;
+        this.maxAttempts = maxAttempts;
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+    // Host name for readability plus a random suffix, so two instances on one host never share leases.
+    // Orphans from a previous run are then recovered by the expiry sweep; a fixed instance-id reclaims them at startup.
+    private static String defaultInstanceId() {
+        String suffix = UUID.randomUUID().toString().substring(0, 8);
+        try {
+            return InetAddress.getLocalHost().getHostName() + "-" + suffix;
+        } catch (UnknownHostException e) {
+            return "delphi-" + suffix;
+        }
     }
 
+    /**
+     * Called once the submission row has been saved as "Pending". The row itself is the queue entry;
+     * this only checks the queue bound and wakes a local worker instead of waiting for the next poll.
+     */
     public void addSubmission(Submissions submission) {
-        boolean added = submissionQueue.offer(submission);
-        if (!added) {
-            throw new RuntimeException("Queue is full. Submission could not be added.");
+        if (submissionRepository.countByStatus("Pending") > queueCapacity) {
+            throw new QueueFullException("Queue is full. Submission could not be added.");
         }
+        workSignal.release();
+    }
+
+    public boolean hasCapacity() {
+        return submissionRepository.countByStatus("Pending") < queueCapacity;
+    }
+
+    public int getQueueDepth() {
+        return (int) submissionRepository.countByStatus("Pending");
+    }
+
+    public int getWorkers() {
+        return workers;
     }
 
-    @PostConstruct
+    public long getAverageGradingMillis() {
+        return averageGradingMillis.get();
+    }
+
+    /**
+     * Returns the 1-based position of the submission in the queue, or -1 if it is not waiting.
+     */
+    public int getPosition(Submissions submission) {
+        if (!"Pending".equals(submission.getStatus())) {
+            return -1;
+        }
+        if (submission.getSubmittedAt() == null) {
+            return 1;
+        }
+        return (int) submissionRepository.countPendingSubmittedBefore(submission.getSubmittedAt()) + 1;
+    }
+
+    /**
+     * Estimated wait before a submission at the given position starts grading. Every worker
+     * drains one submission per average grading time, so each "round" of workers costs one average.
+     */
+    public long estimateWaitMillis(int position) {
+        if (position < 1) {
+            return 0;
+        }
+        long rounds = (position + workers - 1) / workers;
+        return rounds * averageGradingMillis.get();
+    }
+
+    // Exponentially weighted moving average so the ETA follows the current load
+    void recordGradingTime(long millis) {
+        averageGradingMillis.updateAndGet(previous -> (previous * 4 + millis) / 5);
+    }
+
+    /**
+     * Claims the oldest pending submission for this instance, or returns empty if the queue is drained.
+     */
+    Optional<Submissions> claimNext() {
+        Submissions claimed = transactionTemplate.execute(status -> {
+            List<Submissions> pending = submissionRepository.lockPendingSubmissions(1);
+            if (pending.isEmpty()) {
+                return null;
+            }
+            Submissions submission = pending.get(0);
+            submission.setStatus("Running");
+            submission.setLeaseOwner(instanceId);
+            submission.setLeaseExpiresAt(new Timestamp(System.currentTimeMillis() + leaseMillis));
+            submission.setAttempts(submission.getAttempts() == null ? 1 : submission.getAttempts() + 1);
+            return submissionRepository.save(submission);
+        });
+        if (claimed != null) {
+            inFlight.add(claimed.getId());
+        }
+        return Optional.ofNullable(claimed);
+    }
+
+    void release(Submissions submission) {
+        inFlight.remove(submission.getId());
+        if (("Completed".equals(submission.getStatus()) || "Failed".equals(submission.getStatus()))
+                && submission.getSubmittedAt() != null) {
+            try {
+                latestSubmissionRepository.upsert(submission.getAssignment().getId(), submission.getUserId(),
+                        submission.getId(), submission.getSubmittedAt());
+            } catch (Exception e) {
+                logger.error("Could not update latest submission for {}", submission.getId(), e);
+            }
+        }
+    }
+
+    // Blocks until a local upload signals new work or the poll interval elapses (work from other instances)
+    void awaitWork() throws InterruptedException {
+        workSignal.tryAcquire(pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Scheduled(fixedDelayString = "${submission.queue.lease-renew-interval-ms}")
+    public void renewLeases() {
+        if (inFlight.isEmpty()) {
+            return;
+        }
+        Timestamp expiresAt = new Timestamp(System.currentTimeMillis() + leaseMillis);
+        submissionRepository.renewLeases(Set.copyOf(inFlight), instanceId, expiresAt);
+    }
+
+    // A null owner matches nothing, so the periodic sweep only touches leases that have expired
+    @Scheduled(fixedDelayString = "${submission.queue.recovery-interval-ms}")
+    public void recoverExpiredLeases() {
+        recoverOrphanedSubmissions(null);
+    }
+
+    private void recoverOrphanedSubmissions(String owner) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        int failed = submissionRepository.failOrphanedSubmissions(owner, now, maxAttempts);
+        int requeued = submissionRepository.requeueOrphanedSubmissions(owner, now, maxAttempts);
+        if (requeued > 0 || failed > 0) {
+            logger.warn("Recovered orphaned submissions: {} requeued, {} failed after {} attempts", requeued, failed, maxAttempts);
+            workSignal.release(requeued);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
     public void startProcessing() {
-        executorService.submit(new SubmissionProcessor(submissionQueue, fileExecutionService,
-                submissionRepository, assignmentRepository, testCaseRepository));
+        // Anything this instance was running before a restart can never finish, so take it back now
+        recoverOrphanedSubmissions(instanceId);
+        int dated = submissionRepository.fillMissingSubmittedAt();
+        if (dated > 0) {
+            logger.info("Set submitted_at on {} older submissions", dated);
+        }
+        if (latestSubmissionRepository.count() == 0) {
+            int filled = latestSubmissionRepository.backfill();
+            logger.info("Filled latest_submissions with {} existing submissions", filled);
+        }
+        logger.info("Starting {} submission workers as instance {}", workers, instanceId);
+        for (int i = 0; i < workers; i++) {
+            submissionExecutor.execute(new SubmissionProcessor(this, fileExecutionService,
+                    submissionRepository, assignmentRepository, testCaseRepository, stageLimiter, gradingCacheService,
+                    analysisQueueService));
+        }
     }
 }
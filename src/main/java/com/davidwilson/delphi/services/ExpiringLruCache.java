@@ -0,0 +1,51 @@
+package com.davidwilson.delphi.services;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small in-memory cache whose entries expire after a fixed time and which evicts the least recently
+ * used entry once it holds maxEntries. Thread-safe; all operations are short and take one lock.
+ */
+class ExpiringLruCache<K, V> {
+
+    private final long ttlMillis;
+    private final Map<K, Entry<V>> entries;
+
+    ExpiringLruCache(long ttlMillis, int maxEntries) {
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() >= entry.expiresAt()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value();
+    }
+
+    synchronized void put(K key, V value) {
+        entries.put(key, new Entry<>(value, System.currentTimeMillis() + ttlMillis));
+    }
+
+    synchronized void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private record Entry<V>(V value, long expiresAt) {
+    }
+}
@@ -0,0 +1,226 @@
+package com.davidwilson.delphi.services;
+
+import com.davidwilson.delphi.repositories.SubmissionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Relays AI feedback over Server-Sent Events while the model is still writing it. A subscriber gets a
+ * "snapshot" event with the text so far, a "delta" event per chunk after that, and a "done" event with
+ * the final status and text once the analysis has been saved. Feeds live in memory on the instance
+ * running the analysis, and each keeps at most ai.stream.max-chars of text for late subscribers.
+ * Events are only queued under a feed's lock; each subscriber's own virtual thread writes them out, so
+ * a slow client never blocks the analysis. One that falls ai.stream.subscriber-queue events behind is
+ * disconnected, and catches up from the snapshot when it reconnects.
+ */
+@Service
+public class FeedbackStreamService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FeedbackStreamService.class);
+    private static final Set<String> FINISHED = Set.of("Completed", "Failed", "Disabled");
+
+    private final SubmissionRepository submissionRepository;
+    private final long timeoutMillis;
+    private final int maxChars;
+    private final int queueCapacity;
+    private final Map<UUID, Feed> feeds = new ConcurrentHashMap<>();
+
+    public FeedbackStreamService(SubmissionRepository submissionRepository,
+                                 @Value("${ai.stream.emitter-timeout-ms}") long timeoutMillis,
+                                 @Value("${ai.stream.max-chars}") int maxChars,
+                                 @Value("${ai.stream.subscriber-queue}") int queueCapacity) {
+        this.submissionRepository = submissionRepository;
+        this.timeoutMillis = timeoutMillis;
+        this.maxChars = maxChars;
+        this.queueCapacity = queueCapacity;
+    }
+
+    private static class Feed {
+        private final StringBuilder text = new StringBuilder();
+        private final List<Subscriber> subscribers = new ArrayList<>();
+        private boolean started;
+        private boolean truncated;
+        // Removed from the map; a new subscriber or analysis must open a fresh feed
+        private boolean closed;
+    }
+
+    private record Event(String name, Object data) {
+    }
+
+    // Queued after the last event of a stream; the writer completes the emitter when it gets here
+    private static final Event END = new Event(null, null);
+
+    /**
+     * One client. Producers hold the feed's lock, so there is only ever one at a time; the writer thread
+     * is the only one calling the emitter. The queue has a spare slot so END always fits.
+     */
+    private final class Subscriber implements Runnable {
+        private final SseEmitter emitter;
+        private final BlockingQueue<Event> events = new ArrayBlockingQueue<>(queueCapacity + 1);
+        private volatile boolean closed;
+
+        private Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        // False if the client is gone or too far behind, in which case the caller drops it
+        private boolean offer(String name, Object data) {
+            return !closed && events.size() < queueCapacity && events.offer(new Event(name, data));
+        }
+
+        // Ends the stream once what is already queued has been sent
+        private void end() {
+            if (!closed) {
+                closed = true;
+                events.offer(END);
+            }
+        }
+
+        // Ends the stream without sending what is still queued
+        private void drop() {
+            closed = true;
+            events.clear();
+            events.offer(END);
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (Event event = events.take(); event != END; event = events.take()) {
+                    emitter.send(SseEmitter.event().name(event.name()).data(event.data()));
+                }
+                emitter.complete();
+            } catch (IOException | IllegalStateException e) {
+                // A client that has gone away is dropped; the analysis carries on regardless
+                logger.debug("Dropping feedback subscriber: {}", e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                closed = true;
+            }
+        }
+    }
+
+    public SseEmitter subscribe(UUID submissionId) {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        Subscriber subscriber = new Subscriber(emitter);
+        Feed feed = open(submissionId, f -> {
+            if (!f.text.isEmpty()) {
+                subscriber.offer("snapshot", f.text.toString());
+            }
+            f.subscribers.add(subscriber);
+        });
+        emitter.onCompletion(() -> unsubscribe(submissionId, feed, subscriber));
+        emitter.onTimeout(() -> unsubscribe(submissionId, feed, subscriber));
+        emitter.onError(e -> unsubscribe(submissionId, feed, subscriber));
+        Thread.ofVirtual().name("feedback-stream-" + submissionId).start(subscriber);
+
+        // Read after subscribing, so an analysis that finishes meanwhile is seen either here or by finish()
+        submissionRepository.findById(submissionId)
+                .filter(submission -> FINISHED.contains(submission.getAiStatus()))
+                .ifPresent(submission -> finish(submissionId, submission.getAiStatus(), submission.getAIOutput()));
+        return emitter;
+    }
+
+    // Called once the analysis has claimed the submission; text from an earlier run is discarded
+    public void start(UUID submissionId) {
+        open(submissionId, feed -> {
+            feed.started = true;
+            feed.text.setLength(0);
+            feed.truncated = false;
+        });
+    }
+
+    public void append(UUID submissionId, String delta) {
+        Feed feed = feeds.get(submissionId);
+        if (feed == null) {
+            return;
+        }
+        synchronized (feed) {
+            if (feed.closed || feed.truncated) {
+                return;
+            }
+            if (feed.text.length() + delta.length() > maxChars) {
+                // Subscribers get the full text with the "done" event
+                delta = delta.substring(0, maxChars - feed.text.length());
+                feed.truncated = true;
+            }
+            feed.text.append(delta);
+            for (Subscriber subscriber : List.copyOf(feed.subscribers)) {
+                if (!subscriber.offer("delta", delta)) {
+                    logger.debug("Dropping feedback subscriber for {} that fell behind", submissionId);
+                    feed.subscribers.remove(subscriber);
+                    subscriber.drop();
+                }
+            }
+        }
+    }
+
+    // Called after the final text has been saved
+    public void finish(UUID submissionId, String status, String output) {
+        Feed feed = feeds.remove(submissionId);
+        if (feed == null) {
+            return;
+        }
+        Map<String, Object> done = new LinkedHashMap<>();
+        done.put("aiStatus", status);
+        done.put("aiOutput", output);
+        synchronized (feed) {
+            feed.closed = true;
+            for (Subscriber subscriber : feed.subscribers) {
+                if (subscriber.offer("done", done)) {
+                    subscriber.end();
+                } else {
+                    subscriber.drop();
+                }
+            }
+            feed.subscribers.clear();
+            feed.text.setLength(0);
+        }
+    }
+
+    public int getActiveCount() {
+        return feeds.size();
+    }
+
+    // The feed for submissionId, created if needed, with action applied under its lock
+    private Feed open(UUID submissionId, Consumer<Feed> action) {
+        while (true) {
+            Feed feed = feeds.computeIfAbsent(submissionId, id -> new Feed());
+            synchronized (feed) {
+                if (!feed.closed) {
+                    action.accept(feed);
+                    return feed;
+                }
+            }
+        }
+    }
+
+    private void unsubscribe(UUID submissionId, Feed feed, Subscriber subscriber) {
+        // Lets the writer thread exit if it is waiting for events
+        subscriber.drop();
+        synchronized (feed) {
+            feed.subscribers.remove(subscriber);
+            // Nobody is waiting for an analysis that has not started here
+            if (feed.subscribers.isEmpty() && !feed.started && !feed.closed) {
+                feed.closed = true;
+                feeds.remove(submissionId, feed);
+            }
+        }
+    }
+}
@@ -1,111 +1,132 @@
 package com.davidwilson.delphi.services;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.sql.Timestamp;
 import java.util.Comparator;
 
+import com.davidwilson.delphi.entities.Assignment;
 import com.davidwilson.delphi.entities.Submissions;
 import com.davidwilson.delphi.entities.TestCase;
 import com.davidwilson.delphi.repositories.SubmissionRepository;
+import com.davidwilson.delphi.sandbox.SandboxExecutor;
+import com.davidwilson.delphi.sandbox.SandboxJob;
+import com.davidwilson.delphi.sandbox.SandboxRecord;
+import com.davidwilson.delphi.sandbox.SandboxReport;
+import com.davidwilson.delphi.sandbox.SandboxResult;
+import com.davidwilson.delphi.services.GradingStageLimiter.Stage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 @Service
 public class FileExecutionService {
 
     private final Logger logger = LoggerFactory.getLogger(FileExecutionService.class);
-    private static final String SCRIPT_PATH = "Scripts/docker_runner_python.py";
     private static final String HOST_DIR = "uploads";  // Directory for uploaded files
-    private static final String TEMP_DIR = "tmp/unzipped";  // Directory for unzipped files
-    private final AIAnalysisService aiAnalysisService;
+    private static final String JOBS_DIR = "jobs";  // One workspace per submission being graded
+    private static final int LINT_OUTPUT_LIMIT = 10000;
+    private static final double DEFAULT_TIME_LIMIT_SECONDS = 2.0;
+    private static final int DEFAULT_MEMORY_LIMIT_MB = 256;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AnalysisQueueService analysisQueueService;
+    private final GradingStageLimiter stageLimiter;
+    private final LintCacheService lintCacheService;
+    private final ZipExtractor zipExtractor;
+    private final FileUploadService fileUploadService;
+    private final SandboxExecutor sandboxExecutor;
+    private final long jobTimeoutSeconds;
+    private final int testParallelism;
+    private final String testMode;
 
     @Autowired
-    public FileExecutionService(AIAnalysisService aiAnalysisService) {
-        this.aiAnalysisService = aiAnalysisService;
+    public FileExecutionService(AnalysisQueueService analysisQueueService, GradingStageLimiter stageLimiter,
+                                LintCacheService lintCacheService, ZipExtractor zipExtractor,
+                                FileUploadService fileUploadService, SandboxExecutor sandboxExecutor,
+                                @Value("${sandbox.job.timeout-seconds}") long jobTimeoutSeconds,
+                                @Value("${sandbox.tests.parallelism}") int testParallelism,
+                                @Value("${sandbox.container.cpus}") double containerCpus,
+                                @Value("${sandbox.tests.mode}") String testMode) {
+        this.analysisQueueService = analysisQueueService;
+        this.stageLimiter = stageLimiter;
+        this.lintCacheService = lintCacheService;
+        this.zipExtractor = zipExtractor;
+        this.fileUploadService = fileUploadService;
+        this.sandboxExecutor = sandboxExecutor;
+        this.jobTimeoutSeconds = jobTimeoutSeconds;
+        // The CPU count decides: more concurrent cases than the container has CPUs would share them,
+        // inflating runtimes and pushing correct programs past the wall-clock limit. 0 means one per CPU
+        int cpus = Math.max(1, (int) Math.floor(containerCpus));
+        this.testParallelism = testParallelism <= 0 ? cpus : Math.min(testParallelism, cpus);
+        if (this.testParallelism < testParallelism) {
+            logger.info("Running at most {} test cases at once, the sandbox's CPU count", this.testParallelism);
+        }
+        this.testMode = testMode;
     }
 
-    @Async("submissionExecutor")
-    public void runScriptAsync(String zipFileName, Submissions submission, SubmissionRepository submissionRepository, List<TestCase> testCases) {
-        Path tempPath = null;
+    // Runs on a submission worker thread; each stage is bounded by GradingStageLimiter
+    public void executeSubmission(String zipFileName, Submissions submission, SubmissionRepository submissionRepository, List<TestCase> testCases) {
+        Path workspace = null;
         try {
-            submission.setStatus("Running");
-            submissionRepository.save(submission);
-
             // Get absolute paths
             Path currentPath = Paths.get("").toAbsolutePath();
             Path uploadPath = currentPath.resolve(HOST_DIR);
-            tempPath = uploadPath.resolve(TEMP_DIR);
-            
-            logger.info("Upload path: {}", uploadPath);
-            logger.info("Temp path: {}", tempPath);
-
-            // Ensure directories exist
-            if (!Files.exists(uploadPath)) {
-                Files.createDirectories(uploadPath);
-            }
-            if (!Files.exists(tempPath)) {
-                Files.createDirectories(tempPath);
-            }
+            // Keyed by submission id so concurrent jobs never share or delete each other's files
+            workspace = uploadPath.resolve(JOBS_DIR).resolve(submission.getId().toString());
+            logger.info("Workspace: {}", workspace);
+            deleteDirectory(workspace);
+            Files.createDirectories(workspace);
+
+            // Extract once; the sandbox and the AI analysis both work from this tree
+            Path zipFilePath = fileUploadService.locate(submission);
+            Path projectDir = workspace.resolve(SandboxJob.SOURCE_DIR);
+            int extracted = zipExtractor.extract(zipFilePath, projectDir, ZipExtractor.ALL_FILES);
+            logger.info("Extracted {} files to: {}", extracted, projectDir);
 
             // Run test execution in Docker
-            String testCasesString = prepareTestCases(testCases);
-            String scriptOutput = runScript(zipFileName, testCasesString);
-            processScriptOutput(scriptOutput, submission);
-
-            // Unzip the file for AI analysis
-            Path zipFilePath = uploadPath.resolve(zipFileName);
-            Path projectDir = tempPath.resolve(zipFileName.replace(".zip", ""));
-            
-            // Create a clean directory for the unzipped contents
-            if (Files.exists(projectDir)) {
-                deleteDirectory(projectDir);
-            }
-            Files.createDirectories(projectDir);
-
-            // Unzip the file
-            unzipFile(zipFilePath, projectDir);
-            logger.info("Unzipped files to: {}", projectDir);
-
-            // Perform AI analysis
-            if (Files.exists(projectDir)) {
-                String aiAnalysis = aiAnalysisService.analyzeCode(projectDir.toString());
-                if (aiAnalysis != null) {
-                    submission.setAIOutput(aiAnalysis);
-                } else {
-                    logger.info("AI analysis is disabled - skipping analysis phase");
-                    submission.setAIOutput("AI analysis is disabled");
-                }
-            } else {
-                logger.error("Project directory not found after unzipping: {}", projectDir);
-                submission.setAIOutput("Error: Failed to prepare files for analysis.");
-            }
-
+            List<SandboxJob.TestInput> testInputs = prepareTestCases(testCases);
+            LintCacheService.Lookup lintLookup = lintCacheService.lookup(projectDir);
+            Path jobWorkspace = workspace;
+            SandboxReport report = stageLimiter.run(Stage.SANDBOX,
+                    () -> runSandbox(jobWorkspace, zipFileName.replace(".zip", ""), testInputs, lintLookup.getCachedFileNames(), submission));
+            stageLimiter.run(Stage.PARSING, () -> {
+                applyReport(report, lintLookup, !testInputs.isEmpty(), submission);
+                return null;
+            });
+
+            // Publish the grade now; AI feedback follows from the analysis queue
             submission.setStatus("Completed");
-            submissionRepository.save(submission);
+            submission.setAiStatus("Pending");
+            submission.setAiUpdatedAt(new Timestamp(System.currentTimeMillis()));
+            if (!submissionRepository.completeGrading(submission)) {
+                logger.warn("Lease on submission {} was lost; discarding this grading result", submission.getId());
+                return;
+            }
+            analysisQueueService.enqueue(submission.getId());
 
         } catch (Exception e) {
             logger.error("Error executing script: ", e);
             submission.setOutput(e.getMessage());
             submission.setStatus("Failed");
-            submissionRepository.save(submission);
+            if (!submissionRepository.completeGrading(submission)) {
+                logger.warn("Lease on submission {} was lost; discarding this grading result", submission.getId());
+            }
         } finally {
-            // Cleanup: Delete the temporary directory
-            if (tempPath != null) {
+            // Cleanup: Delete this job's workspace
+            if (workspace != null) {
                 try {
-                    deleteDirectory(tempPath);
-                    logger.info("Cleaned up temporary directory: {}", tempPath);
+                    deleteDirectory(workspace);
+                    logger.info("Cleaned up workspace: {}", workspace);
                 } catch (IOException e) {
-                    logger.error("Error cleaning up temporary directory: {}", e.getMessage());
+                    logger.error("Error cleaning up workspace: {}", e.getMessage());
                 }
             }
         }
@@ -125,183 +146,91 @@ public class FileExecutionService {
         }
     }
 
-    private void unzipFile(Path zipFile, Path targetDir) throws IOException {
-        ProcessBuilder processBuilder = new ProcessBuilder("unzip", "-q", zipFile.toString(), "-d", targetDir.toString());
-        Process process = processBuilder.start();
-        try {
-            int exitCode = process.waitFor();
-            if (exitCode != 0) {
-                throw new IOException("Failed to unzip file, exit code: " + exitCode);
-            }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new IOException("Unzip process interrupted", e);
-        }
-    }
-
-    private String prepareTestCases(List<TestCase> testCases) {
-        if (testCases.isEmpty()) {
-            return "";
-        }
-        StringBuilder sb = new StringBuilder();
+    private List<SandboxJob.TestInput> prepareTestCases(List<TestCase> testCases) {
+        List<SandboxJob.TestInput> inputs = new ArrayList<>();
         for (TestCase testCase : testCases) {
             String input = testCase.getInput().replace("\\n", "\n");
             String expected = testCase.getExpectedOutput().replace("\\n", "\n");
-            sb.append(input).append("|||").append(expected).append("\n---\n");
+            inputs.add(new SandboxJob.TestInput(input, expected));
         }
-        return sb.toString();
+        return inputs;
     }
 
-    private void processScriptOutput(String scriptOutput, Submissions submission) {
-        try {
-            // Extract lint and execution output
-            int lintingIndex = scriptOutput.indexOf("LINTING");
-            int executionIndex = scriptOutput.indexOf("EXECUTION");
-            int metricsIndex = scriptOutput.indexOf("METRICS");
-
-            if (lintingIndex == -1 || executionIndex == -1 || metricsIndex == -1) {
-                logger.error("Missing required output markers in script output");
-                submission.setStatus("Failed");
-                submission.setOutput("Script output format error");
-                return;
-            }
-
-            String lintingOutput = scriptOutput.substring(lintingIndex + 7, executionIndex);
-            submission.setLintOutput(lintingOutput);
-
-            boolean hasTestCases = scriptOutput.contains("TEST_CASES");
-            if (hasTestCases) {
-                processTestCaseOutput(scriptOutput.substring(scriptOutput.indexOf("TEST_CASES") + 10, metricsIndex).trim(), submission);
-            } else {
-                submission.setOutput(scriptOutput.substring(executionIndex + 10, metricsIndex).trim());
-            }
-
-            processMetrics(scriptOutput.substring(metricsIndex + 8).trim(), submission);
-        } catch (Exception e) {
-            logger.error("Error processing script output: ", e);
-            submission.setOutput("Error processing script output: " + e.getMessage());
+    private void applyReport(SandboxReport report, LintCacheService.Lookup lintLookup, boolean hasTestCases,
+                             Submissions submission) throws IOException {
+        if (!report.isComplete()) {
+            logger.error("Sandbox report incomplete ({}). Console: {}", report.getProtocolError(), report.getDiagnostics());
+            throw new IOException("Script output format error: " + report.getProtocolError());
         }
-    }
-
-    private void processTestCaseOutput(String testCaseText, Submissions submission) {
-        int jsonArrayStart = testCaseText.indexOf('[');
-        int jsonArrayEnd = testCaseText.lastIndexOf(']') + 1;
-
-        if (jsonArrayStart >= 0 && jsonArrayEnd > jsonArrayStart) {
-            String jsonResults = testCaseText.substring(jsonArrayStart, jsonArrayEnd);
-            submission.setTestResults(jsonResults);
-
-            try {
-                List<Map<String, Object>> results = new ObjectMapper().readValue(jsonResults, List.class);
-                int testWeight = submission.getAssignment().getGradeWeight();
-                int totalTests = results.size();
-                int passedTests = (int) results.stream()
-                    .filter(result -> "Passed".equals(result.get("status")))
-                    .count();
-
-                // Calculate test case score
-                double testScore = totalTests > 0 ? (double) (passedTests * testWeight) / totalTests : testWeight;
-                
-                // Calculate linting score
-                double lintScore = 0;
-                String lintOutput = submission.getLintOutput();
-                if (lintOutput != null && !lintOutput.isEmpty()) {
-                    // Extract the numerical score from the linting output
-                    int scoreStart = lintOutput.lastIndexOf("Your code has been rated at ");
-                    int scoreEnd = lintOutput.lastIndexOf("/10");
-                    if (scoreStart >= 0 && scoreEnd > scoreStart) {
-                        try {
-                            String scoreStr = lintOutput.substring(scoreStart + 28, scoreEnd).trim();
-                            double lintRating = Double.parseDouble(scoreStr);
-                            lintScore = (lintRating * ((double) (100 - testWeight) / 10)); // Scale to 0-100
-                        } catch (NumberFormatException e) {
-                            logger.error("Error parsing linting score: {}", e.getMessage());
-                        }
-                    }
-                }
-                logger.info("Total tests: {}, Passed tests: {}, Test score: {}, Lint score: {}", totalTests, passedTests, testScore, lintScore);
-                
-                // Final grade as a percentage
-                submission.setGrade(testScore + lintScore);
-            } catch (Exception e) {
-                logger.error("Error calculating grade: ", e);
-                submission.setGrade(0.0);
-            }
 
-            if (jsonArrayStart > 0) {
-                submission.setOutput(testCaseText.substring(0, jsonArrayStart).trim());
-            } else {
-                submission.setOutput("Test case execution completed.");
-            }
-        } else {
-            submission.setTestResults("");
-            submission.setOutput(testCaseText);
-            submission.setGrade(0.0);
+        // Files skipped because their lint results were cached are merged back in here
+        SandboxRecord.Lint lint = lintCacheService.mergeAndStore(lintLookup, report.getLint());
+        if (lint != null) {
+            String lintOutput = lint.render();
+            submission.setLintOutput(lintOutput.length() > LINT_OUTPUT_LIMIT ? lintOutput.substring(0, LINT_OUTPUT_LIMIT) : lintOutput);
         }
-    }
 
-    private void processMetrics(String metricsOutput, Submissions submission) {
-        try {
-            String[] metrics = metricsOutput.split(",");
-            if (metrics.length >= 2) {
-                processRuntimeMetric(metrics[0], submission);
-                processMemoryMetric(metrics[1], submission);
-            } else {
-                logger.warn("Invalid metrics format (insufficient parts): {}", metricsOutput);
-                submission.setRuntime(0);
-                submission.setMemoryUsage(0);
-            }
-        } catch (Exception e) {
-            logger.error("Error parsing metrics: {} - Data: {}", e.getMessage(), metricsOutput);
-            submission.setRuntime(0);
-            submission.setMemoryUsage(0);
+        SandboxRecord.Error error = report.getError();
+        if (error != null) {
+            throw new IOException("Error: " + error.message());
         }
-    }
 
-    private void processRuntimeMetric(String runtimePart, Submissions submission) {
-        int runtimeColonIndex = runtimePart.indexOf(":");
-        if (runtimeColonIndex >= 0) {
-            String runtimeStr = runtimePart.substring(runtimeColonIndex + 1).trim().replaceAll("[^0-9]", "");
-            submission.setRuntime(runtimeStr.isEmpty() ? 0 : Integer.parseInt(runtimeStr));
-        } else {
-            submission.setRuntime(0);
+        SandboxRecord.Metrics metrics = report.getMetrics();
+        if (metrics != null) {
+            submission.setRuntime((int) metrics.runtime());
+            submission.setMemoryUsage((int) metrics.memory());
         }
-    }
 
-    private void processMemoryMetric(String memoryPart, Submissions submission) {
-        int memoryColonIndex = memoryPart.indexOf(":");
-        if (memoryColonIndex >= 0) {
-            String memoryStr = memoryPart.substring(memoryColonIndex + 1).trim().replaceAll("[^0-9]", "");
-            submission.setMemoryUsage(memoryStr.isEmpty() ? 0 : Integer.parseInt(memoryStr));
-        } else {
-            submission.setMemoryUsage(0);
+        if (hasTestCases) {
+            List<SandboxRecord.TestCaseResult> results = report.getTestResults();
+            submission.setTestResults(objectMapper.writeValueAsString(results));
+            submission.setGrade(calculateGrade(results, lint, submission));
+            submission.setOutput("Test case execution completed.");
+        } else if (report.getOutput() != null) {
+            submission.setOutput(report.getOutput().text());
         }
     }
 
-    private String runScript(String zipFileName, String testCases) throws IOException, InterruptedException {
-        ProcessBuilder processBuilder;
+    private double calculateGrade(List<SandboxRecord.TestCaseResult> results, SandboxRecord.Lint lint, Submissions submission) {
+        int testWeight = submission.getAssignment().getGradeWeight();
+        int totalTests = results.size();
+        int passedTests = (int) results.stream().filter(SandboxRecord.TestCaseResult::passed).count();
+
+        // Calculate test case score
+        double testScore = totalTests > 0 ? (double) (passedTests * testWeight) / totalTests : testWeight;
 
-        if (testCases != null && !testCases.isEmpty()) {
-            processBuilder = new ProcessBuilder("python3", SCRIPT_PATH, zipFileName, testCases);
-        } else {
-            processBuilder = new ProcessBuilder("python3", SCRIPT_PATH, zipFileName);
+        // Lint rating is out of 10, scaled to the remaining share of the grade
+        double lintScore = 0;
+        if (lint != null && lint.score() != null) {
+            lintScore = lint.score() * ((double) (100 - testWeight) / 10);
         }
+        logger.info("Total tests: {}, Passed tests: {}, Test score: {}, Lint score: {}", totalTests, passedTests, testScore, lintScore);
 
-        processBuilder.redirectErrorStream(true);
-        Process process = processBuilder.start();
+        // Final grade as a percentage
+        return testScore + lintScore;
+    }
 
-        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-        StringBuilder output = new StringBuilder();
-        String line;
-        while ((line = reader.readLine()) != null) {
-            output.append(line).append("\n");
+    private SandboxReport runSandbox(Path workspace, String entryName, List<SandboxJob.TestInput> testCases, Set<String> lintSkip,
+                                     Submissions submission) throws IOException, InterruptedException {
+        Assignment assignment = submission.getAssignment();
+        double timeLimit = assignment.getTimeLimit() == null ? DEFAULT_TIME_LIMIT_SECONDS : assignment.getTimeLimit();
+        int memoryLimit = assignment.getMemoryLimit() == null ? DEFAULT_MEMORY_LIMIT_MB : assignment.getMemoryLimit();
+        SandboxJob job = new SandboxJob(workspace, entryName, testCases, jobTimeoutSeconds, timeLimit, memoryLimit, testParallelism, testMode, lintSkip);
+        // Records are parsed as lines arrive from the executor's callback thread
+        SandboxReport report = new SandboxReport(job);
+        SandboxResult result = sandboxExecutor.execute(job, report);
+
+        if (result.isTimedOut()) {
+            throw new IOException("Script execution timed out after " + jobTimeoutSeconds + " seconds");
         }
-
-        int exitCode = process.waitFor();
-        if (exitCode != 0) {
-            logger.error("Console: {}", output);
-            throw new IOException("Script execution failed with exit code " + exitCode);
+        if (result.getExitCode() != 0) {
+            logger.error("Console: {}", report.getDiagnostics());
+            throw new IOException("Script execution failed with exit code " + result.getExitCode());
         }
-        return output.toString();
+
+        // The harness measures the student's program only; fall back to the whole run if it did not report
+        submission.setRuntime((int) result.getRuntimeMillis());
+        submission.setMemoryUsage((int) result.getPeakMemoryKb());
+        return report;
     }
-}
\ No newline at end of file
+}
@@ -1,35 +1,64 @@
 package com.davidwilson.delphi.services;
 
+import com.davidwilson.delphi.entities.Submissions;
+import com.davidwilson.delphi.repositories.SubmissionRepository;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
-import java.util.Objects;
 
 @Service
 public class FileUploadService {
-    @Value("${file.upload-dir}")
-    private String uploadDir;
-
-    public String saveFile(MultipartFile file) throws IOException {
-        // Create dir if not exists or configure BLOB storage
-        File directory = new File(uploadDir);
-        if (!directory.exists()) {
-            directory.mkdirs();
+    private final BlobStore blobStore;
+    private final SubmissionRepository submissionRepository;
+    private final Path uploadDir;
+
+    public FileUploadService(BlobStore blobStore, SubmissionRepository submissionRepository,
+                             @Value("${file.upload-dir}") String uploadDir) {
+        this.blobStore = blobStore;
+        this.submissionRepository = submissionRepository;
+        this.uploadDir = Paths.get(uploadDir).toAbsolutePath().normalize();
+    }
+
+    // Stored by content, so two students uploading main.zip never overwrite each other
+    public BlobStore.StoredBlob saveFile(MultipartFile file) throws IOException {
+        try (InputStream in = file.getInputStream()) {
+            return blobStore.store(in);
+        }
+    }
+
+    // The uploaded zip for a submission; submissions from before the blob store live under their file name
+    public Path locate(Submissions submission) {
+        if (submission.getContentHash() != null) {
+            Path blob = blobStore.resolve(submission.getContentHash());
+            if (Files.exists(blob)) {
+                return blob;
+            }
         }
-        Path destinationPath = Paths.get(uploadDir).toAbsolutePath().normalize();
-        Path filePath = destinationPath.resolve(Objects.requireNonNull(file.getOriginalFilename())); // Set the file path
+        return uploadDir.resolve(submission.getFileName()).normalize();
+    }
 
-        // Copy the file to the dest path, overwrite if exists
-        Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
+    // A submission row holds its own reference to its blob, independent of the upload that created it
+    public void retain(BlobStore.StoredBlob blob) {
+        blobStore.retain(blob.digest());
+    }
 
-        return filePath.toString();
+    public void release(BlobStore.StoredBlob blob) {
+        blobStore.release(blob.digest());
     }
-}
 
+    // Removes the row and drops its blob reference together, so the last submission of an archive frees it
+    @Transactional
+    public void deleteSubmission(Submissions submission) {
+        submissionRepository.delete(submission);
+        if (submission.getContentHash() != null) {
+            blobStore.release(submission.getContentHash());
+        }
+    }
+}
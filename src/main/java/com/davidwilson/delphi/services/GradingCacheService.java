@@ -0,0 +1,160 @@
+package com.davidwilson.delphi.services;
+
+import com.davidwilson.delphi.config.AIConfiguration;
+import com.davidwilson.delphi.entities.Assignment;
+import com.davidwilson.delphi.entities.Submissions;
+import com.davidwilson.delphi.entities.TestCase;
+import com.davidwilson.delphi.repositories.SubmissionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reuses the results of an earlier submission when nothing that affects grading has changed.
+ * The grading key hashes the zip contents and its entry point (taken from the file name) together
+ * with the assignment's grading settings, the current test cases, the pylint configuration version
+ * and the active AI configuration, so editing any of those changes the key and older results simply
+ * stop matching; there is nothing to invalidate explicitly.
+ */
+@Service
+public class GradingCacheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(GradingCacheService.class);
+    // Bump when grading itself changes (harness, scoring) so older results are not reused
+    private static final String KEY_VERSION = "2";
+
+    private final SubmissionRepository submissionRepository;
+    private final AIConfigurationService configService;
+    private final String lintConfigVersion;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @Autowired
+    public GradingCacheService(SubmissionRepository submissionRepository, AIConfigurationService configService,
+                               @Value("${sandbox.lint.config-version}") String lintConfigVersion) {
+        this.submissionRepository = submissionRepository;
+        this.configService = configService;
+        this.lintConfigVersion = lintConfigVersion;
+    }
+
+    /**
+     * Returns the grading key for the submission, or null if its upload was never hashed.
+     */
+    public String gradingKey(Submissions submission, List<TestCase> testCases) {
+        if (submission.getContentHash() == null) {
+            return null;
+        }
+        Assignment assignment = submission.getAssignment();
+        MessageDigest digest = sha256();
+        update(digest, KEY_VERSION);
+        update(digest, submission.getContentHash());
+        // The sandbox runs <name>.py from the uploaded file name, so the same bytes under another name can grade differently
+        update(digest, submission.getFileName() == null ? null : submission.getFileName().replace(".zip", ""));
+        update(digest, assignment.getId());
+        update(digest, assignment.getGradeWeight());
+        update(digest, assignment.getTimeLimit());
+        update(digest, assignment.getMemoryLimit());
+        // The cached result includes the lint report, which changes with pylint and its configuration
+        update(digest, lintConfigVersion);
+
+        List<TestCase> ordered = testCases.stream()
+                .sorted(Comparator.comparing(testCase -> String.valueOf(testCase.getId())))
+                .toList();
+        update(digest, ordered.size());
+        for (TestCase testCase : ordered) {
+            update(digest, testCase.getId());
+            update(digest, testCase.getInput());
+            update(digest, testCase.getExpectedOutput());
+        }
+
+        Optional<AIConfiguration> aiConfig = configService.getActiveConfiguration();
+        if (aiConfig.isPresent()) {
+            AIConfiguration config = aiConfig.get();
+            update(digest, config.getId());
+            update(digest, config.getModel());
+            update(digest, config.getSystemPrompt());
+            update(digest, config.getAnalysisPrompt());
+            update(digest, config.getTemperature());
+            update(digest, config.getMaxTokens());
+        } else {
+            update(digest, "ai-disabled");
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Finds the most recent completed submission graded under the same key. Results whose AI analysis
+     * failed are not reused, so a transient LLM error is retried on the next upload.
+     */
+    public Optional<Submissions> findCompleted(String gradingKey) {
+        if (gradingKey == null) {
+            return Optional.empty();
+        }
+        Optional<Submissions> cached = submissionRepository
+                .findFirstByGradingKeyAndStatusOrderBySubmittedAtDesc(gradingKey, "Completed")
+                .filter(previous -> !"Failed".equals(previous.getAiStatus()))
+                .filter(previous -> previous.getAIOutput() == null || !previous.getAIOutput().startsWith("Error"));
+        (cached.isPresent() ? hits : misses).incrementAndGet();
+        return cached;
+    }
+
+    /**
+     * Copies the grading results. The AI feedback is copied too once it exists; if the earlier submission is
+     * still waiting for it, the target is left "Pending" and the caller must queue its own analysis.
+     */
+    public void applyCachedResult(Submissions source, Submissions target) {
+        target.setLintOutput(source.getLintOutput());
+        target.setTestResults(source.getTestResults());
+        target.setGrade(source.getGrade());
+        boolean analyzed = "Completed".equals(source.getAiStatus()) || "Disabled".equals(source.getAiStatus())
+                || (source.getAiStatus() == null && source.getAIOutput() != null);
+        if (analyzed) {
+            target.setAIOutput(source.getAIOutput());
+            target.setAiStatus(source.getAiStatus() == null ? "Completed" : source.getAiStatus());
+        } else {
+            target.setAiStatus("Pending");
+        }
+        target.setAiUpdatedAt(new Timestamp(System.currentTimeMillis()));
+        target.setOutput(source.getOutput());
+        target.setRuntime(source.getRuntime());
+        target.setMemoryUsage(source.getMemory());
+        target.setStatus("Completed");
+        logger.info("Submission {} matches already graded submission {}; reusing its results", target.getId(), source.getId());
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    // Length-prefixed so adjacent fields can never run together into the same bytes
+    private static void update(MessageDigest digest, Object value) {
+        byte[] bytes = String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+        digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.US_ASCII));
+        digest.update((byte) ':');
+        digest.update(bytes);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.davidwilson.delphi.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bounds how many submissions may be inside each grading stage at once, independently
+ * of the number of workers. A worker blocks at the stage boundary until a permit frees up.
+ */
+@Component
+public class GradingStageLimiter {
+
+    public enum Stage {
+        LOOKUP,
+        SANDBOX,
+        PARSING
+    }
+
+    private final Map<Stage, Semaphore> permits = new EnumMap<>(Stage.class);
+    private final Map<Stage, Integer> limits = new EnumMap<>(Stage.class);
+
+    public GradingStageLimiter(@Value("${submission.stage.lookup.concurrency}") int lookupConcurrency,
+                               @Value("${submission.stage.sandbox.concurrency}") int sandboxConcurrency,
+                               @Value("${submission.stage.parsing.concurrency}") int parsingConcurrency) {
+        register(Stage.LOOKUP, lookupConcurrency);
+        register(Stage.SANDBOX, sandboxConcurrency);
+        register(Stage.PARSING, parsingConcurrency);
+    }
+
+    private void register(Stage stage, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Concurrency for stage " + stage + " must be at least 1");
+        }
+        permits.put(stage, new Semaphore(limit, true));
+        limits.put(stage, limit);
+    }
+
+    public <T> T run(Stage stage, Callable<T> task) throws Exception {
+        Semaphore semaphore = permits.get(stage);
+        semaphore.acquire();
+        try {
+            return task.call();
+        } finally {
+            semaphore.release();
+        }
+    }
+
+    public int getLimit(Stage stage) {
+        return limits.get(stage);
+    }
+
+    public int getInFlight(Stage stage) {
+        return limits.get(stage) - permits.get(stage).availablePermits();
+    }
+}
@@ -0,0 +1,46 @@
+package com.davidwilson.delphi.services;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Makes Keycloak admin API calls as the service account. Error responses are returned, not thrown;
+ * a 401 is retried once with a refreshed token in case the cached one was revoked early.
+ */
+@Service
+public class KeycloakAdminClient {
+
+    private final RestTemplate restTemplate;
+    private final KeycloakTokenManager tokenManager;
+
+    public KeycloakAdminClient(@Qualifier("keycloakRestTemplate") RestTemplate restTemplate,
+                               KeycloakTokenManager tokenManager) {
+        this.restTemplate = restTemplate;
+        this.tokenManager = tokenManager;
+    }
+
+    public ResponseEntity<String> exchange(String uri, HttpMethod method, Object body) {
+        String accessToken = tokenManager.getAccessToken();
+        ResponseEntity<String> response = restTemplate.exchange(uri, method, request(body, accessToken), String.class);
+
+        if (response.getStatusCode() == HttpStatus.UNAUTHORIZED) {
+            accessToken = tokenManager.refreshAccessToken(accessToken);
+            response = restTemplate.exchange(uri, method, request(body, accessToken), String.class);
+        }
+        return response;
+    }
+
+    private static HttpEntity<Object> request(Object body, String accessToken) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setBearerAuth(accessToken);
+        return new HttpEntity<>(body, headers);
+    }
+}
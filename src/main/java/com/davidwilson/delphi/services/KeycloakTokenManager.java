@@ -0,0 +1,144 @@
+package com.davidwilson.delphi.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Holds the service account token used for Keycloak admin calls. The token is refreshed shortly before
+ * it expires instead of after a request has failed with 401, and concurrent refreshes collapse into a
+ * single token request whose result every waiting caller shares.
+ */
+@Service
+public class KeycloakTokenManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(KeycloakTokenManager.class);
+
+    private final RestTemplate restTemplate;
+    private final String clientId;
+    private final String clientSecret;
+    private final String tokenUri;
+    private final long refreshSkewMillis;
+
+    private volatile Token token;
+    // The refresh in flight, if any; guarded by this
+    private CompletableFuture<Token> refresh;
+
+    public KeycloakTokenManager(@Qualifier("keycloakRestTemplate") RestTemplate restTemplate,
+                                @Value("${spring.security.oauth2.client.registration.keycloak.client-id}") String clientId,
+                                @Value("${spring.security.oauth2.client.registration.keycloak.client-secret}") String clientSecret,
+                                @Value("${spring.security.oauth2.client.provider.keycloak.token-uri}") String tokenUri,
+                                @Value("${keycloak.token.refresh-skew-seconds}") long refreshSkewSeconds) {
+        this.restTemplate = restTemplate;
+        this.clientId = clientId;
+        this.clientSecret = clientSecret;
+        this.tokenUri = tokenUri;
+        this.refreshSkewMillis = refreshSkewSeconds * 1000;
+    }
+
+    /**
+     * Returns the current token, fetching a new one first if it is about to expire.
+     */
+    public String getAccessToken() {
+        Token current = token;
+        if (current != null && !current.needsRefresh()) {
+            return current.value();
+        }
+        return refresh().value();
+    }
+
+    /**
+     * Called after Keycloak rejected a token, e.g. because it was revoked before its expiry. If another
+     * caller already replaced the rejected token, the newer one is returned without another request.
+     */
+    public String refreshAccessToken(String rejectedToken) {
+        Token current = token;
+        if (current != null && !current.value().equals(rejectedToken) && !current.needsRefresh()) {
+            return current.value();
+        }
+        return refresh().value();
+    }
+
+    private Token refresh() {
+        CompletableFuture<Token> inFlight;
+        boolean owner = false;
+        synchronized (this) {
+            if (refresh == null) {
+                refresh = new CompletableFuture<>();
+                owner = true;
+            }
+            inFlight = refresh;
+        }
+
+        if (owner) {
+            try {
+                Token fresh = requestToken();
+                token = fresh;
+                inFlight.complete(fresh);
+            } catch (RuntimeException e) {
+                inFlight.completeExceptionally(e);
+            } finally {
+                synchronized (this) {
+                    refresh = null;
+                }
+            }
+        }
+
+        try {
+            return inFlight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private Token requestToken() {
+        HttpHeaders tokenHeaders = new HttpHeaders();
+        tokenHeaders.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+
+        MultiValueMap<String, String> tokenBody = new LinkedMultiValueMap<>();
+        tokenBody.add("client_id", clientId);
+        tokenBody.add("client_secret", clientSecret);
+        tokenBody.add("grant_type", "client_credentials");
+
+        HttpEntity<MultiValueMap<String, String>> tokenRequest = new HttpEntity<>(tokenBody, tokenHeaders);
+        long requestedAt = System.currentTimeMillis();
+        ResponseEntity<Map> tokenResponse = restTemplate.postForEntity(tokenUri, tokenRequest, Map.class);
+
+        if (tokenResponse.getStatusCode() != HttpStatus.OK || tokenResponse.getBody() == null) {
+            throw new RuntimeException("Failed to obtain access token");
+        }
+        String accessToken = (String) tokenResponse.getBody().get("access_token");
+        if (accessToken == null) {
+            throw new RuntimeException("Failed to obtain access token");
+        }
+        // Measured from when the request was sent, so network time never makes the token look fresher than it is.
+        // Short-lived tokens are refreshed halfway through instead of refreshing on every call.
+        long lifetimeMillis = (tokenResponse.getBody().get("expires_in") instanceof Number seconds ? seconds.longValue() : 60) * 1000;
+        long refreshAt = requestedAt + Math.max(lifetimeMillis - refreshSkewMillis, lifetimeMillis / 2);
+        logger.debug("Obtained Keycloak service account token valid for {} ms", lifetimeMillis);
+        return new Token(accessToken, refreshAt);
+    }
+
+    private record Token(String value, long refreshAtMillis) {
+        boolean needsRefresh() {
+            return System.currentTimeMillis() >= refreshAtMillis;
+        }
+    }
+}
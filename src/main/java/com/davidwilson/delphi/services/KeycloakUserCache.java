@@ -0,0 +1,132 @@
+package com.davidwilson.delphi.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Read-through cache of Keycloak user representations and realm role mappings, so pages that show a
+ * name or role per row do not make one admin API call per row. Only successful responses are cached.
+ * Entries expire after keycloak.cache.ttl-seconds, which bounds how stale a change made directly in
+ * Keycloak can look; changes made through this backend invalidate the affected user immediately.
+ */
+@Service
+public class KeycloakUserCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(KeycloakUserCache.class);
+
+    private final KeycloakAdminClient keycloakAdminClient;
+    private final String usersUri;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ExpiringLruCache<String, String> users;
+    private final ExpiringLruCache<String, String> realmRoles;
+    // Shared by all batch lookups; each holds one Keycloak connection at a time, so this never exceeds the pool
+    private final Semaphore lookupPermits;
+
+    public KeycloakUserCache(KeycloakAdminClient keycloakAdminClient,
+                             @Value("${keycloak.registerUri}") String usersUri,
+                             @Value("${keycloak.cache.ttl-seconds}") long ttlSeconds,
+                             @Value("${keycloak.cache.max-entries}") int maxEntries,
+                             @Value("${http.keycloak.max-connections}") int maxConnections) {
+        this.keycloakAdminClient = keycloakAdminClient;
+        this.lookupPermits = new Semaphore(Math.max(1, maxConnections));
+        this.usersUri = usersUri;
+        this.users = new ExpiringLruCache<>(ttlSeconds * 1000, maxEntries);
+        this.realmRoles = new ExpiringLruCache<>(ttlSeconds * 1000, maxEntries);
+    }
+
+    public ResponseEntity<String> getUser(String id) {
+        return readThrough(users, id, usersUri + "/" + id);
+    }
+
+    public ResponseEntity<String> getRealmRoles(String id) {
+        return readThrough(realmRoles, id, usersUri + "/" + id + "/role-mappings/realm");
+    }
+
+    /**
+     * Names and manager flag for many users in one call. Users that could not be loaded are left out.
+     * Cache misses are fetched concurrently, at most as many at once as the Keycloak pool has
+     * connections, so lookups queue here instead of timing out waiting for a connection.
+     */
+    public Map<String, Map<String, Object>> getUsers(Collection<String> ids) {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Map<String, Future<Map<String, Object>>> lookups = new LinkedHashMap<>();
+            for (String id : new LinkedHashSet<>(ids)) {
+                lookups.put(id, executor.submit(() -> {
+                    lookupPermits.acquire();
+                    try {
+                        return summarize(id);
+                    } finally {
+                        lookupPermits.release();
+                    }
+                }));
+            }
+            for (Map.Entry<String, Future<Map<String, Object>>> lookup : lookups.entrySet()) {
+                try {
+                    Map<String, Object> summary = lookup.getValue().get();
+                    if (summary != null) {
+                        result.put(lookup.getKey(), summary);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return result;
+                } catch (Exception e) {
+                    logger.warn("Could not load Keycloak user {}: {}", lookup.getKey(), e.getMessage());
+                }
+            }
+        }
+        return result;
+    }
+
+    public void invalidateUser(String id) {
+        users.invalidate(id);
+    }
+
+    public void invalidateRoles(String id) {
+        realmRoles.invalidate(id);
+    }
+
+    private Map<String, Object> summarize(String id) throws IOException {
+        ResponseEntity<String> user = getUser(id);
+        if (user.getStatusCode() != HttpStatus.OK || user.getBody() == null) {
+            return null;
+        }
+        JsonNode node = objectMapper.readTree(user.getBody());
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("id", id);
+        summary.put("username", node.path("username").asText(null));
+        summary.put("firstName", node.path("firstName").asText(null));
+        summary.put("lastName", node.path("lastName").asText(null));
+        summary.put("email", node.path("email").asText(null));
+
+        ResponseEntity<String> roles = getRealmRoles(id);
+        summary.put("manager", roles.getStatusCode() == HttpStatus.OK && roles.getBody() != null && roles.getBody().contains("manager"));
+        return summary;
+    }
+
+    private ResponseEntity<String> readThrough(ExpiringLruCache<String, String> cache, String id, String uri) {
+        String cached = cache.get(id);
+        if (cached != null) {
+            return ResponseEntity.ok(cached);
+        }
+        ResponseEntity<String> response = keycloakAdminClient.exchange(uri, HttpMethod.GET, null);
+        if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
+            cache.put(id, response.getBody());
+        }
+        return response;
+    }
+}
@@ -0,0 +1,83 @@
+package com.davidwilson.delphi.services;
+
+import com.davidwilson.delphi.config.AIConfiguration;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps LLM calls under the provider's requests-per-minute and tokens-per-minute limits of the active
+ * configuration. Both are token buckets that refill continuously and hold at most one minute's allowance,
+ * so a quiet period allows a short burst but the per-minute rate is never exceeded. Token use is estimated
+ * before the call and corrected with the usage the provider reports afterwards.
+ */
+@Component
+public class LLMRateLimiter {
+
+    private static final double NANOS_PER_MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+    private final Bucket requests = new Bucket();
+    private final Bucket tokens = new Bucket();
+
+    /**
+     * Blocks until one request of about estimatedTokens fits within both limits, then takes it.
+     */
+    public void acquire(AIConfiguration config, int estimatedTokens) throws InterruptedException {
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                waitNanos = Math.max(requests.waitNanos(config.getRequestsPerMinute(), 1, now),
+                        tokens.waitNanos(config.getTokensPerMinute(), estimatedTokens, now));
+                if (waitNanos == 0) {
+                    requests.take(1);
+                    tokens.take(estimatedTokens);
+                    return;
+                }
+            }
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Charges (or refunds) the difference between the estimate and the tokens the provider actually counted.
+     */
+    public synchronized void recordUsage(int estimatedTokens, int actualTokens) {
+        tokens.take(actualTokens - estimatedTokens);
+    }
+
+    private static class Bucket {
+        private Integer limit;
+        private double available;
+        private long refilledAt;
+
+        // Nanoseconds until amount is available; a limit of null or below 1 means unlimited
+        long waitNanos(Integer perMinute, int amount, long now) {
+            if (perMinute == null || perMinute < 1) {
+                limit = null;
+                return 0;
+            }
+            if (!perMinute.equals(limit)) {
+                // First use or the limit was reconfigured; start from a full allowance under the new limit
+                limit = perMinute;
+                available = perMinute;
+            } else {
+                available = Math.min(limit, available + (now - refilledAt) * limit / NANOS_PER_MINUTE);
+            }
+            refilledAt = now;
+
+            // A request larger than the whole allowance waits for a full bucket instead of forever
+            double needed = Math.min(amount, limit);
+            if (available >= needed) {
+                return 0;
+            }
+            return (long) Math.ceil((needed - available) * NANOS_PER_MINUTE / limit);
+        }
+
+        void take(int amount) {
+            if (limit != null) {
+                available -= amount;
+            }
+        }
+    }
+}
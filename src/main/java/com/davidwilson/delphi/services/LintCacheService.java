@@ -0,0 +1,210 @@
+package com.davidwilson.delphi.services;
+
+import com.davidwilson.delphi.entities.LintCacheEntry;
+import com.davidwilson.delphi.repositories.LintCacheRepository;
+import com.davidwilson.delphi.sandbox.SandboxRecord;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * Caches pylint results per file so a resubmission only lints the files that changed. Files are
+ * identified by the SHA-256 of their contents and their name; results are only reused under the
+ * same pylint configuration version and within the same module set, since messages such as
+ * import-error, no-member and cyclic-import depend on the project's other modules.
+ */
+@Service
+public class LintCacheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(LintCacheService.class);
+    private static final TypeReference<List<SandboxRecord.LintMessage>> MESSAGE_LIST = new TypeReference<>() {};
+
+    private final LintCacheRepository lintCacheRepository;
+    private final String configVersion;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Autowired
+    public LintCacheService(LintCacheRepository lintCacheRepository,
+                            @Value("${sandbox.lint.config-version}") String configVersion) {
+        this.lintCacheRepository = lintCacheRepository;
+        this.configVersion = configVersion;
+    }
+
+    /**
+     * Hashes the top-level .py files in the extracted submission (the ones the harness lints) and looks them up.
+     */
+    public Lookup lookup(Path projectDir) throws IOException {
+        Map<String, String> fileHashes = new HashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(projectDir, "*.py")) {
+            for (Path file : files) {
+                if (!Files.isRegularFile(file)) {
+                    continue;
+                }
+                try (InputStream in = Files.newInputStream(file)) {
+                    fileHashes.put(file.getFileName().toString(), sha256(in));
+                }
+            }
+        }
+
+        String projectHash = moduleSetHash(projectDir);
+        Map<String, LintCacheEntry> cached = new HashMap<>();
+        if (!fileHashes.isEmpty()) {
+            for (LintCacheEntry entry : lintCacheRepository.findByConfigVersionAndProjectHashAndFileHashIn(
+                    configVersion, projectHash, fileHashes.values())) {
+                if (entry.getFileHash().equals(fileHashes.get(entry.getFileName()))) {
+                    cached.put(entry.getFileName(), entry);
+                }
+            }
+        }
+        logger.info("Lint cache: {} of {} files cached for {}", cached.size(), fileHashes.size(), projectDir.getFileName());
+        return new Lookup(fileHashes, projectHash, cached);
+    }
+
+    /**
+     * Hashes the path and contents of every .py file in the project, in any directory, since any of
+     * them can be imported by the files that are linted.
+     */
+    static String moduleSetHash(Path projectDir) throws IOException {
+        List<Path> modules;
+        try (Stream<Path> files = Files.walk(projectDir)) {
+            modules = files.filter(file -> file.getFileName().toString().endsWith(".py") && Files.isRegularFile(file))
+                    .sorted()
+                    .toList();
+        }
+        StringBuilder moduleSet = new StringBuilder();
+        for (Path module : modules) {
+            try (InputStream in = Files.newInputStream(module)) {
+                moduleSet.append(projectDir.relativize(module).toString().replace('\\', '/'))
+                        .append('\0').append(sha256(in)).append('\n');
+            }
+        }
+        return sha256(new ByteArrayInputStream(moduleSet.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Stores the results of the files linted in this job and merges them with the cached ones.
+     * The score is recomputed over the merged set with pylint's default evaluation formula.
+     */
+    public SandboxRecord.Lint mergeAndStore(Lookup lookup, SandboxRecord.Lint linted) {
+        List<SandboxRecord.LintMessage> messages = new ArrayList<>();
+        int statements = 0;
+
+        if (linted != null) {
+            messages.addAll(linted.messages() == null ? List.of() : linted.messages());
+            for (SandboxRecord.LintedFile file : linted.files() == null ? List.<SandboxRecord.LintedFile>of() : linted.files()) {
+                statements += file.statements();
+                store(lookup, file, linted.messages());
+            }
+        }
+        for (LintCacheEntry entry : lookup.cached.values()) {
+            try {
+                messages.addAll(objectMapper.readValue(entry.getMessages(), MESSAGE_LIST));
+                statements += entry.getStatements() == null ? 0 : entry.getStatements();
+            } catch (IOException e) {
+                logger.warn("Unreadable lint cache entry {}", entry.getId(), e);
+            }
+        }
+
+        messages.sort(Comparator.comparing(SandboxRecord.LintMessage::path, Comparator.nullsFirst(Comparator.naturalOrder()))
+                .thenComparing(m -> m.line() == null ? 0 : m.line())
+                .thenComparing(m -> m.column() == null ? 0 : m.column()));
+        return new SandboxRecord.Lint(messages, score(messages, statements), linted == null ? List.of() : linted.files());
+    }
+
+    private void store(Lookup lookup, SandboxRecord.LintedFile file, List<SandboxRecord.LintMessage> allMessages) {
+        String hash = lookup.fileHashes.get(file.path());
+        if (hash == null || lintCacheRepository.existsByFileHashAndFileNameAndConfigVersionAndProjectHash(
+                hash, file.path(), configVersion, lookup.projectHash)) {
+            return;
+        }
+        List<SandboxRecord.LintMessage> fileMessages = allMessages == null ? List.of() : allMessages.stream()
+                .filter(message -> file.path().equals(message.path()))
+                .toList();
+        try {
+            LintCacheEntry entry = new LintCacheEntry();
+            entry.setFileHash(hash);
+            entry.setFileName(file.path());
+            entry.setConfigVersion(configVersion);
+            entry.setProjectHash(lookup.projectHash);
+            entry.setMessages(objectMapper.writeValueAsString(fileMessages));
+            entry.setStatements(file.statements());
+            entry.setCreatedAt(new Timestamp(System.currentTimeMillis()));
+            lintCacheRepository.save(entry);
+        } catch (DataIntegrityViolationException e) {
+            // Another worker cached the same file first
+        } catch (IOException e) {
+            logger.warn("Could not cache lint results for {}", file.path(), e);
+        }
+    }
+
+    // pylint: 10 - ((5 * error + warning + refactor + convention) / statements) * 10, and 0 on a fatal message
+    static Double score(List<SandboxRecord.LintMessage> messages, int statements) {
+        if (statements == 0) {
+            return messages.isEmpty() ? null : 0.0;
+        }
+        int error = 0, warning = 0, refactor = 0, convention = 0;
+        for (SandboxRecord.LintMessage message : messages) {
+            switch (String.valueOf(message.type())) {
+                case "fatal" -> {
+                    return 0.0;
+                }
+                case "error" -> error++;
+                case "warning" -> warning++;
+                case "refactor" -> refactor++;
+                case "convention" -> convention++;
+                default -> {
+                }
+            }
+        }
+        double score = 10.0 - ((double) (5 * error + warning + refactor + convention) / statements) * 10;
+        return Math.max(0.0, score);
+    }
+
+    private static String sha256(InputStream in) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (DigestInputStream digestStream = new DigestInputStream(in, digest)) {
+                digestStream.transferTo(OutputStream.nullOutputStream());
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public static class Lookup {
+        private final Map<String, String> fileHashes;
+        private final String projectHash;
+        private final Map<String, LintCacheEntry> cached;
+
+        Lookup(Map<String, String> fileHashes, String projectHash, Map<String, LintCacheEntry> cached) {
+            this.fileHashes = fileHashes;
+            this.projectHash = projectHash;
+            this.cached = cached;
+        }
+
+        public Set<String> getCachedFileNames() {
+            return cached.keySet();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.davidwilson.delphi.services;
+
+import com.davidwilson.delphi.config.AIConfiguration;
+import com.davidwilson.delphi.repositories.LlmResponseCacheRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Postgres-backed cache of chat completions, so the same starter code submitted by a whole class, or
+ * a regrade that produces the same prompt, costs one LLM call. Entries expire after ai.cache.ttl-hours
+ * and the least recently used are evicted once the cache holds more than ai.cache.max-bytes.
+ * Configurations can opt out with cacheResponses=false, and temperatures above
+ * ai.cache.max-temperature are never cached since their responses are meant to vary.
+ */
+@Service
+public class LlmResponseCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(LlmResponseCache.class);
+    private static final Pattern TRAILING_WHITESPACE = Pattern.compile("[ \\t]+$", Pattern.MULTILINE);
+
+    private final LlmResponseCacheRepository repository;
+    private final boolean enabled;
+    private final double maxTemperature;
+    private final long ttlMillis;
+    private final long maxBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bypassed = new AtomicLong();
+    private final AtomicLong tokensSaved = new AtomicLong();
+
+    public LlmResponseCache(LlmResponseCacheRepository repository,
+                            @Value("${ai.cache.enabled}") boolean enabled,
+                            @Value("${ai.cache.max-temperature}") double maxTemperature,
+                            @Value("${ai.cache.ttl-hours}") long ttlHours,
+                            @Value("${ai.cache.max-bytes}") long maxBytes) {
+        this.repository = repository;
+        this.enabled = enabled;
+        this.maxTemperature = maxTemperature;
+        this.ttlMillis = ttlHours * 3_600_000;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * The cache key for this request, or null if it must not be served from or stored in the cache.
+     */
+    public String keyFor(AIConfiguration config, String prompt, boolean bypass) {
+        if (!enabled || bypass || Boolean.FALSE.equals(config.getCacheResponses())
+                || (config.getTemperature() != null && config.getTemperature() > maxTemperature)) {
+            bypassed.incrementAndGet();
+            return null;
+        }
+        MessageDigest digest = sha256();
+        for (Object part : new Object[]{config.getModel(), config.getSystemPrompt(), config.getTemperature(),
+                config.getMaxTokens(), normalize(prompt)}) {
+            digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+            // Separator, so ("ab", "c") and ("a", "bc") hash differently
+            digest.update((byte) 0);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // A cache failure only costs the LLM call it would have saved
+    public Optional<String> get(String key) {
+        try {
+            Timestamp now = now();
+            Optional<String> response = repository.findFresh(key, new Timestamp(now.getTime() - ttlMillis)).map(entry -> {
+                repository.recordHit(key, now);
+                hits.incrementAndGet();
+                tokensSaved.addAndGet(entry.getTotalTokens() == null ? 0 : entry.getTotalTokens());
+                return entry.getResponse();
+            });
+            if (response.isEmpty()) {
+                misses.incrementAndGet();
+            }
+            return response;
+        } catch (DataAccessException e) {
+            logger.warn("LLM response cache lookup failed: {}", e.getMessage());
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+    }
+
+    public void put(String key, String model, String response, Integer totalTokens) {
+        try {
+            Timestamp now = now();
+            repository.upsert(key, model, response, totalTokens, response.getBytes(StandardCharsets.UTF_8).length,
+                    now, new Timestamp(now.getTime() - ttlMillis));
+        } catch (DataAccessException e) {
+            logger.warn("Could not cache LLM response: {}", e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${ai.cache.cleanup-interval-ms}")
+    public void evict() {
+        int expired = repository.deleteExpired(new Timestamp(System.currentTimeMillis() - ttlMillis));
+        int evicted = repository.evictBeyond(maxBytes);
+        if (expired > 0 || evicted > 0) {
+            logger.info("LLM response cache: removed {} expired and {} least recently used entries", expired, evicted);
+        }
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("bypassed", bypassed.get());
+        stats.put("tokensSaved", tokensSaved.get());
+        return stats;
+    }
+
+    // Line endings and trailing whitespace do not change what the model is asked
+    static String normalize(String prompt) {
+        return TRAILING_WHITESPACE.matcher(prompt.replace("\r\n", "\n")).replaceAll("").strip();
+    }
+
+    private static Timestamp now() {
+        return new Timestamp(System.currentTimeMillis());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
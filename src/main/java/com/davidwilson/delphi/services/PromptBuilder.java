@@ -0,0 +1,228 @@
+package com.davidwilson.delphi.services;
+
+import com.davidwilson.delphi.config.AIConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Assembles the code review prompt within a token budget. Files are ranked (entry point first, then
+ * recently changed and small source files, generated or minified files last) and included in that
+ * order until the budget is spent; the next file may be cut short, and the rest are only listed.
+ * Binaries and oversized files are recognised from their size and first few KB, never read whole.
+ */
+@Component
+public class PromptBuilder {
+
+    private static final Logger logger = LoggerFactory.getLogger(PromptBuilder.class);
+    private static final int SAMPLE_BYTES = 8192;
+    // Per-file header and fences
+    private static final int FILE_OVERHEAD_TOKENS = 20;
+    // A shorter excerpt shows too little of a file to be worth its tokens
+    private static final int MIN_EXCERPT_TOKENS = 200;
+    // Kept free for the list of files that did not fit
+    private static final int OMITTED_LIST_TOKENS = 500;
+    private static final int OMITTED_LIST_MAX = 50;
+    private static final int MINIFIED_LINE_LENGTH = 300;
+
+    private static final Set<String> VENDORED_DIRS = Set.of(
+            "node_modules", "bower_components", "vendor", "site-packages", "venv", ".venv", "__pycache__", ".git");
+    private static final Set<String> GENERATED_DIRS = Set.of(
+            "dist", "build", "out", "target", "generated", "coverage");
+    private static final Set<String> ENTRY_NAMES = Set.of(
+            "main", "__main__", "app", "index", "server", "program");
+
+    private final int maxInputTokens;
+    private final int defaultContextWindow;
+    private final long maxFileBytes;
+
+    public PromptBuilder(@Value("${ai.prompt.max-input-tokens}") int maxInputTokens,
+                         @Value("${ai.prompt.default-context-window}") int defaultContextWindow,
+                         @Value("${ai.prompt.max-file-bytes}") long maxFileBytes) {
+        this.maxInputTokens = maxInputTokens;
+        this.defaultContextWindow = defaultContextWindow;
+        this.maxFileBytes = maxFileBytes;
+    }
+
+    public record Prompt(String text, int fileCount) {
+    }
+
+    // Code tokenizes more densely than prose, so three characters per token errs on the high side
+    public static int estimateTokens(long chars) {
+        return (int) Math.min(Integer.MAX_VALUE, (chars + 2) / 3);
+    }
+
+    /**
+     * Builds the prompt for the code files under projectDir. entryName is the submission's base name,
+     * which the sandbox also treats as the entry point; it may be null.
+     */
+    public Prompt build(AIConfiguration config, Path projectDir, String entryName) throws IOException {
+        List<Candidate> candidates = new ArrayList<>();
+        List<String> omitted = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(projectDir)) {
+            for (Path path : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+                String relativePath = projectDir.relativize(path).toString().replace('\\', '/');
+                if (!ZipExtractor.isCodeFile(relativePath) || inDirectory(relativePath, VENDORED_DIRS)) {
+                    continue;
+                }
+                long size = Files.size(path);
+                if (size > maxFileBytes) {
+                    omitted.add(relativePath + " (" + size + " bytes, too large)");
+                    continue;
+                }
+                String sample = sample(path);
+                if (sample == null) {
+                    omitted.add(relativePath + " (binary)");
+                    continue;
+                }
+                candidates.add(new Candidate(path, relativePath, size, Files.getLastModifiedTime(path).toMillis(),
+                        tier(relativePath, sample, entryName)));
+            }
+        }
+        candidates.sort(Comparator.comparing(Candidate::tier)
+                .thenComparing(Comparator.comparingLong(Candidate::modifiedAt).reversed())
+                .thenComparingLong(Candidate::size)
+                .thenComparing(Candidate::relativePath));
+
+        int budget = fileBudget(config);
+        StringBuilder prompt = new StringBuilder();
+        prompt.append(config.getAnalysisPrompt());
+        prompt.append("\n\n");
+
+        int full = 0;
+        int truncated = 0;
+        for (Candidate candidate : candidates) {
+            // Byte size bounds the character count, so this never underestimates
+            int cost = estimateTokens(candidate.size()) + FILE_OVERHEAD_TOKENS;
+            if (cost <= budget) {
+                appendFile(prompt, candidate.relativePath(), read(candidate.path(), candidate.size()), false);
+                budget -= cost;
+                full++;
+            } else if (candidate.tier() != Tier.GENERATED && budget >= MIN_EXCERPT_TOKENS + FILE_OVERHEAD_TOKENS) {
+                long chars = (long) (budget - FILE_OVERHEAD_TOKENS) * 3;
+                appendFile(prompt, candidate.relativePath(), read(candidate.path(), chars), true);
+                budget = 0;
+                truncated++;
+            } else {
+                omitted.add(candidate.relativePath() + " (" + candidate.size() + " bytes)");
+            }
+        }
+
+        if (!omitted.isEmpty()) {
+            prompt.append("Files not shown to keep the review within its token budget:\n");
+            omitted.stream().limit(OMITTED_LIST_MAX).forEach(file -> prompt.append("- ").append(file).append("\n"));
+            if (omitted.size() > OMITTED_LIST_MAX) {
+                prompt.append("- and ").append(omitted.size() - OMITTED_LIST_MAX).append(" more\n");
+            }
+        }
+
+        logger.info("Prompt for {}: {} files in full, {} truncated, {} left out, about {} tokens",
+                projectDir.getFileName(), full, truncated, omitted.size(), estimateTokens(prompt.length()));
+        return new Prompt(prompt.toString(), full + truncated);
+    }
+
+    // Tokens left for file contents once the completion, the fixed prompt text and the omitted list are accounted for
+    private int fileBudget(AIConfiguration config) {
+        int contextWindow = config.getContextWindow() != null ? config.getContextWindow() : defaultContextWindow;
+        int completion = config.getMaxTokens() != null ? config.getMaxTokens() : 0;
+        int fixed = estimateTokens(config.getSystemPrompt().length()) + estimateTokens(config.getAnalysisPrompt().length())
+                + OMITTED_LIST_TOKENS;
+        return Math.max(0, Math.min(maxInputTokens, contextWindow - completion) - fixed);
+    }
+
+    private enum Tier { ENTRY_POINT, SOURCE, GENERATED }
+
+    private static Tier tier(String relativePath, String sample, String entryName) {
+        String fileName = relativePath.substring(relativePath.lastIndexOf('/') + 1);
+        String lowerName = fileName.toLowerCase(Locale.ROOT);
+        String baseName = lowerName.contains(".") ? lowerName.substring(0, lowerName.indexOf('.')) : lowerName;
+
+        if (lowerName.contains(".min.") || lowerName.contains(".bundle.") || inDirectory(relativePath, GENERATED_DIRS)
+                || isMinified(sample) || sample.contains("@generated") || sample.contains("DO NOT EDIT")) {
+            return Tier.GENERATED;
+        }
+        if (ENTRY_NAMES.contains(baseName) || (entryName != null && baseName.equalsIgnoreCase(entryName))
+                || sample.contains("if __name__ == \"__main__\"") || sample.contains("if __name__ == '__main__'")
+                || sample.contains("public static void main(")) {
+            return Tier.ENTRY_POINT;
+        }
+        return Tier.SOURCE;
+    }
+
+    private static boolean inDirectory(String relativePath, Set<String> directories) {
+        String[] segments = relativePath.split("/");
+        for (int i = 0; i < segments.length - 1; i++) {
+            if (directories.contains(segments[i].toLowerCase(Locale.ROOT))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isMinified(String sample) {
+        long lines = sample.chars().filter(c -> c == '\n').count() + 1;
+        return sample.length() / lines > MINIFIED_LINE_LENGTH;
+    }
+
+    // The first few KB as text, or null if they contain a NUL byte and the file is binary
+    private static String sample(Path path) throws IOException {
+        byte[] head;
+        try (InputStream in = Files.newInputStream(path)) {
+            head = in.readNBytes(SAMPLE_BYTES);
+        }
+        for (byte b : head) {
+            if (b == 0) {
+                return null;
+            }
+        }
+        return new String(head, StandardCharsets.UTF_8);
+    }
+
+    // At most maxChars characters, cut back to a line end when the file is longer; malformed UTF-8 is replaced
+    private static String read(Path path, long maxChars) throws IOException {
+        StringBuilder content = new StringBuilder();
+        char[] buffer = new char[SAMPLE_BYTES];
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(path), StandardCharsets.UTF_8))) {
+            int read;
+            while (content.length() < maxChars
+                    && (read = reader.read(buffer, 0, (int) Math.min(buffer.length, maxChars - content.length()))) != -1) {
+                content.append(buffer, 0, read);
+            }
+            if (content.length() >= maxChars && reader.read() != -1) {
+                int lineEnd = content.lastIndexOf("\n");
+                if (lineEnd > 0) {
+                    content.setLength(lineEnd);
+                }
+                content.append("\n... [truncated]");
+            }
+        }
+        return content.toString();
+    }
+
+    private static void appendFile(StringBuilder prompt, String relativePath, String content, boolean truncated) {
+        prompt.append("File: ").append(relativePath);
+        if (truncated) {
+            prompt.append(" (beginning only)");
+        }
+        prompt.append("\n");
+        prompt.append("```\n").append(content).append("\n```\n\n");
+    }
+
+    private record Candidate(Path path, String relativePath, long size, long modifiedAt, Tier tier) {
+    }
+}
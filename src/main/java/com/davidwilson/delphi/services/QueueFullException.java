@@ -0,0 +1,7 @@
+package com.davidwilson.delphi.services;
+
+public class QueueFullException extends RuntimeException {
+    public QueueFullException(String message) {
+        super(message);
+    }
+}
@@ -4,51 +4,110 @@ import com.davidwilson.delphi.entities.Assignment;
 import com.davidwilson.delphi.entities.Submissions;
 import com.davidwilson.delphi.repositories.AssignmentRepository;
 import com.davidwilson.delphi.repositories.SubmissionRepository;
-import org.springframework.beans.factory.annotation.Autowired;
 
 import com.davidwilson.delphi.repositories.TestCaseRepository;
 import com.davidwilson.delphi.entities.TestCase;
+import com.davidwilson.delphi.services.GradingStageLimiter.Stage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.Optional;
 import java.util.UUID;
-import java.util.concurrent.BlockingQueue;
 import java.util.List;
 
 public class SubmissionProcessor implements Runnable {
 
-    private final BlockingQueue<Submissions> submissionQueue;
+    private final Logger logger = LoggerFactory.getLogger(SubmissionProcessor.class);
+    private final ExecutionQueueService executionQueueService;
     private final FileExecutionService fileExecutionService;
     private final SubmissionRepository submissionRepository;
     private final AssignmentRepository assignmentRepository;
     private final TestCaseRepository testCaseRepository;
+    private final GradingStageLimiter stageLimiter;
+    private final GradingCacheService gradingCacheService;
+    private final AnalysisQueueService analysisQueueService;
 
-    @Autowired
-    public SubmissionProcessor(BlockingQueue<Submissions> submissionQueue, FileExecutionService fileExecutionService, SubmissionRepository submissionRepository, AssignmentRepository assignmentRepository, TestCaseRepository testCaseRepository) {
-        this.submissionQueue = submissionQueue;
+    public SubmissionProcessor(ExecutionQueueService executionQueueService, FileExecutionService fileExecutionService,
+                               SubmissionRepository submissionRepository, AssignmentRepository assignmentRepository,
+                               TestCaseRepository testCaseRepository, GradingStageLimiter stageLimiter,
+                               GradingCacheService gradingCacheService, AnalysisQueueService analysisQueueService) {
+        this.executionQueueService = executionQueueService;
         this.fileExecutionService = fileExecutionService;
         this.submissionRepository = submissionRepository;
         this.assignmentRepository = assignmentRepository;
         this.testCaseRepository = testCaseRepository;
+        this.stageLimiter = stageLimiter;
+        this.gradingCacheService = gradingCacheService;
+        this.analysisQueueService = analysisQueueService;
     }
 
     @Override
     public void run() {
-        while (true) {
+        while (!Thread.currentThread().isInterrupted()) {
+            Submissions submission;
             try {
-                Submissions submission = submissionQueue.take();
-                UUID assignmentId = submission.getAssignment().getId();
-                Assignment assignment = assignmentRepository.findById(assignmentId)
-                        .orElseThrow(() -> new IllegalArgumentException("Invalid assignment ID"));
-
-                submission.setAssignment(assignment);
-                submissionRepository.save(submission);
+                Optional<Submissions> claimed = executionQueueService.claimNext();
+                if (claimed.isEmpty()) {
+                    executionQueueService.awaitWork();
+                    continue;
+                }
+                submission = claimed.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                // Database unavailable or similar; back off for one poll interval and try again
+                logger.error("Error claiming next submission", e);
+                try {
+                    executionQueueService.awaitWork();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                continue;
+            }
 
-                List<TestCase> testCases = testCaseRepository.findByAssignmentId(assignmentId);
+            long start = System.currentTimeMillis();
+            try {
+                UUID assignmentId = submission.getAssignment().getId();
+                List<TestCase> testCases = stageLimiter.run(Stage.LOOKUP, () -> {
+                    Assignment assignment = assignmentRepository.findById(assignmentId)
+                            .orElseThrow(() -> new IllegalArgumentException("Invalid assignment ID"));
+                    submission.setAssignment(assignment);
+                    return testCaseRepository.findByAssignmentId(assignmentId);
+                });
 
-                fileExecutionService.runScriptAsync(submission.getFileName(), submission, submissionRepository, testCases);
+                String gradingKey = gradingCacheService.gradingKey(submission, testCases);
+                submission.setGradingKey(gradingKey);
+                Optional<Submissions> previous = stageLimiter.run(Stage.LOOKUP, () -> gradingCacheService.findCompleted(gradingKey));
+                if (previous.isPresent()) {
+                    // Identical upload under identical grading settings; skip the sandbox and the LLM call
+                    gradingCacheService.applyCachedResult(previous.get(), submission);
+                    boolean saved = submissionRepository.completeGrading(submission);
+                    if (!saved) {
+                        logger.warn("Lease on submission {} was lost; discarding the cached result", submission.getId());
+                    } else if ("Pending".equals(submission.getAiStatus())) {
+                        analysisQueueService.enqueue(submission.getId());
+                    }
+                } else {
+                    fileExecutionService.executeSubmission(submission.getFileName(), submission, submissionRepository, testCases);
+                }
             } catch (InterruptedException e) {
+                // Shutting down mid-grade; the lease will expire and another worker picks the submission up
                 Thread.currentThread().interrupt();
                 break;
+            } catch (Exception e) {
+                // Never let one bad submission kill the worker
+                logger.error("Error processing submission {}", submission.getId(), e);
+                submission.setOutput(e.getMessage());
+                submission.setStatus("Failed");
+                if (!submissionRepository.completeGrading(submission)) {
+                    logger.warn("Lease on submission {} was lost; discarding the failure", submission.getId());
+                }
+            } finally {
+                executionQueueService.release(submission);
+                executionQueueService.recordGradingTime(System.currentTimeMillis() - start);
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,58 @@
+package com.davidwilson.delphi.services;
+
+import com.davidwilson.delphi.repositories.SubmissionReviewsRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Turns the text submission_id column of existing databases into a uuid foreign key to submissions,
+ * which new databases get from the entity mapping. Runs once; afterwards the column type check is a no-op.
+ * Instances starting together serialize on a Postgres advisory lock, and only the first one converts.
+ * Reviews of submissions that no longer exist are moved to submission_reviews_unlinked, not deleted.
+ */
+@Component
+public class SubmissionReviewsMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(SubmissionReviewsMigration.class);
+    private static final long MIGRATION_LOCK = 0x44454C5048490001L;
+
+    private final SubmissionReviewsRepository submissionReviewsRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    public SubmissionReviewsMigration(SubmissionReviewsRepository submissionReviewsRepository,
+                                      TransactionTemplate transactionTemplate) {
+        this.submissionReviewsRepository = submissionReviewsRepository;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrate() {
+        if (isConverted()) {
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            submissionReviewsRepository.lockForMigration(MIGRATION_LOCK);
+            // Another instance may have converted the column while this one waited for the lock
+            if (isConverted()) {
+                return;
+            }
+            submissionReviewsRepository.createUnlinkedArchive();
+            int archived = submissionReviewsRepository.archiveUnlinkedReviews();
+            submissionReviewsRepository.deleteUnlinkedReviews();
+            if (archived > 0) {
+                logger.warn("Moved {} submission reviews that referenced missing submissions to submission_reviews_unlinked", archived);
+            }
+            submissionReviewsRepository.convertSubmissionIdToForeignKey();
+            logger.info("Converted submission_reviews.submission_id to a uuid foreign key");
+        });
+    }
+
+    private boolean isConverted() {
+        String columnType = submissionReviewsRepository.findSubmissionIdColumnType();
+        return columnType == null || columnType.equals("uuid");
+    }
+}
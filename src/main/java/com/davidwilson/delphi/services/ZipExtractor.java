@@ -0,0 +1,114 @@
+package com.davidwilson.delphi.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Streams an uploaded zip to disk entry by entry. Sizes are counted as bytes are actually inflated,
+ * not taken from the (attacker-controlled) headers, so a zip bomb is stopped at the quota instead of
+ * filling the disk. Entries that would land outside the target directory are rejected.
+ */
+@Component
+public class ZipExtractor {
+
+    public static final Predicate<String> ALL_FILES = name -> true;
+    public static final Predicate<String> CODE_FILES = ZipExtractor::isCodeFile;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final int maxEntries;
+    private final long maxEntryBytes;
+    private final long maxTotalBytes;
+
+    public ZipExtractor(@Value("${submission.extract.max-entries}") int maxEntries,
+                        @Value("${submission.extract.max-entry-bytes}") long maxEntryBytes,
+                        @Value("${submission.extract.max-total-bytes}") long maxTotalBytes) {
+        this.maxEntries = maxEntries;
+        this.maxEntryBytes = maxEntryBytes;
+        this.maxTotalBytes = maxTotalBytes;
+    }
+
+    /**
+     * Extracts the entries accepted by filter into targetDir and returns how many files were written.
+     *
+     * @throws ZipQuotaException if the archive is unsafe or exceeds a quota; targetDir may then hold a partial tree
+     */
+    public int extract(Path zipFile, Path targetDir, Predicate<String> filter) throws IOException {
+        Path root = targetDir.toAbsolutePath().normalize();
+        Files.createDirectories(root);
+
+        int entries = 0;
+        int written = 0;
+        long totalBytes = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(Files.newInputStream(zipFile)))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (++entries > maxEntries) {
+                    throw new ZipQuotaException("Archive has more than " + maxEntries + " entries");
+                }
+                String name = entry.getName();
+                Path destination = root.resolve(name).normalize();
+                if (name.startsWith("/") || name.contains("\\") || !destination.startsWith(root) || destination.equals(root)) {
+                    throw new ZipQuotaException("Archive entry escapes the extraction directory: " + name);
+                }
+                // macOS resource forks are never part of the submission
+                if (name.startsWith("__MACOSX/") || destination.getFileName().toString().equals(".DS_Store")) {
+                    continue;
+                }
+                if (entry.isDirectory()) {
+                    Files.createDirectories(destination);
+                    continue;
+                }
+                if (!filter.test(name)) {
+                    continue;
+                }
+
+                Files.createDirectories(destination.getParent());
+                long entryBytes = 0;
+                try (OutputStream out = Files.newOutputStream(destination)) {
+                    int read;
+                    while ((read = zip.read(buffer)) != -1) {
+                        entryBytes += read;
+                        totalBytes += read;
+                        if (entryBytes > maxEntryBytes) {
+                            throw new ZipQuotaException("Archive entry " + name + " expands to more than " + maxEntryBytes + " bytes");
+                        }
+                        if (totalBytes > maxTotalBytes) {
+                            throw new ZipQuotaException("Archive expands to more than " + maxTotalBytes + " bytes");
+                        }
+                        out.write(buffer, 0, read);
+                    }
+                }
+                // Kept so later stages can tell which files the student changed most recently
+                if (entry.getLastModifiedTime() != null) {
+                    Files.setLastModifiedTime(destination, entry.getLastModifiedTime());
+                }
+                written++;
+            }
+        }
+        return written;
+    }
+
+    public static boolean isCodeFile(String path) {
+        String lowercasePath = path.toLowerCase();
+        return lowercasePath.endsWith(".java") ||
+               lowercasePath.endsWith(".py") ||
+               lowercasePath.endsWith(".js") ||
+               lowercasePath.endsWith(".jsx") ||
+               lowercasePath.endsWith(".ts") ||
+               lowercasePath.endsWith(".tsx") ||
+               lowercasePath.endsWith(".html") ||
+               lowercasePath.endsWith(".css");
+    }
+}
@@ -0,0 +1,9 @@
+package com.davidwilson.delphi.services;
+
+import java.io.IOException;
+
+public class ZipQuotaException extends IOException {
+    public ZipQuotaException(String message) {
+        super(message);
+    }
+}
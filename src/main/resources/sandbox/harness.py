@@ -0,0 +1,679 @@
+#!/usr/bin/env python3
+"""Delphi grading harness.
+
+Runs inside the sandbox: copies in the submission, lints it, runs the program or its test
+cases and reports everything as framed JSON records on stdout. A record is one line of the
+form "@@delphi/<version> <nonce> <json>". The nonce is chosen per job by the backend and read
+from stdin, so nothing the submission prints can be mistaken for a record.
+
+The submission never gets near the nonce, the expected outputs or the harness's stdout: once
+started, the harness deletes its job file and itself, and when it runs as root the program runs as
+the unprivileged "sandbox" user in a source tree it owns, under a job directory it cannot list.
+Cases are never forked from a process that has read the nonce or the job; outputs are compared
+with the expected ones here, after the case has exited.
+
+Test cases run concurrently, up to the job's "parallelism", each in its own process group with
+CPU, address-space and file-size rlimits taken from the assignment's time and memory limits.
+In "fork" mode (the default) cases are forked from a preloaded fork server instead of each
+starting python3, so per-case runtime measures the program rather than interpreter startup.
+
+Usage: harness.py <job_file> <source> <work_dir>   (the nonce on stdin)
+
+<source> is the extracted submission directory (or, for older backends, its zip).
+"""
+import sys
+
+# Top-level modules a fresh "python3 -u" has loaded before it runs a program; files next to the
+# program cannot shadow these, but they can shadow anything imported later
+STARTUP_MODULES = frozenset(name.partition(".")[0] for name in sys.modules)
+
+import ast
+import builtins
+import glob
+import importlib
+import io
+import json
+import math
+import os
+import pwd
+import resource
+import selectors
+import shutil
+import signal
+import socket
+import subprocess
+import threading
+import time
+import traceback
+import types
+import zipfile
+
+PROTOCOL_VERSION = 1
+OUTPUT_LIMIT = 10000
+DEFAULT_TIME_LIMIT_SECONDS = 2
+WALL_TIME_FACTOR = 3
+FILE_SIZE_LIMIT = 16 * 1024 * 1024
+CAPTURE_LIMIT = 1024 * 1024
+PIPE_CHUNK = 65536
+CLOSE_FDS_UP_TO = 4096
+NONCE_LENGTH = 32
+MESSAGE_LIMIT = 4096
+REAP_INTERVAL = 0.005
+SANDBOX_USER = "sandbox"
+NOBODY = 65534
+
+
+def read_nonce():
+    """Reads the nonce from stdin straight into a bytearray, so it can be zeroed later."""
+    nonce = bytearray(NONCE_LENGTH)
+    view = memoryview(nonce)
+    filled = 0
+    while filled < NONCE_LENGTH:
+        read = os.readv(0, [view[filled:]])
+        if read == 0:
+            print("harness: no nonce on stdin", file=sys.stderr)
+            sys.exit(2)
+        filled += read
+    return nonce
+
+
+class Reporter:
+    def __init__(self, nonce):
+        # Only ever held in this bytearray and written with writev, so no immutable copy exists to leak
+        self.prefix = bytearray(f"@@delphi/{PROTOCOL_VERSION} ".encode()) + nonce + b" "
+        nonce[:] = bytes(len(nonce))
+        self.lock = threading.Lock()
+
+    def emit(self, record_type, **fields):
+        fields["type"] = record_type
+        payload = memoryview((json.dumps(fields) + "\n").encode())
+        with self.lock:
+            written = os.writev(1, [self.prefix, payload]) - len(self.prefix)
+            # A pipe can take a large record in pieces; the prefix itself is far below PIPE_BUF
+            while written < len(payload):
+                written += os.write(1, payload[written:])
+
+    def forget(self):
+        """Called in children forked from the harness: the program must not find the nonce in its own memory."""
+        self.prefix[:] = bytes(len(self.prefix))
+
+
+def sandbox_ids():
+    """The uid and gid programs run as, or None when the harness is not root (the local executor)."""
+    if os.geteuid() != 0:
+        return None
+    try:
+        entry = pwd.getpwnam(SANDBOX_USER)
+        return entry.pw_uid, entry.pw_gid
+    except KeyError:
+        return NOBODY, NOBODY
+
+
+def confine(job_dir, work_dir, ids):
+    """Gives the program its source tree to work in and nothing above it to look at."""
+    if ids is None:
+        return
+    os.chown(job_dir, 0, 0)
+    os.chmod(job_dir, 0o711)
+    for root, dirs, files in os.walk(work_dir):
+        os.lchown(root, *ids)
+        for name in dirs + files:
+            os.lchown(os.path.join(root, name), *ids)
+
+
+def truncate(text):
+    if text is None or len(text) <= OUTPUT_LIMIT:
+        return text
+    return text[:OUTPUT_LIMIT] + "\n... output truncated"
+
+
+def prepare(source, work_dir):
+    """Copies the submission into the writable work dir; the backend has already extracted and vetted it."""
+    if os.path.isdir(source):
+        # The per-job workspace is already private and writable, so it is usually run in place
+        if not (os.path.isdir(work_dir) and os.path.samefile(source, work_dir)):
+            shutil.copytree(source, work_dir, dirs_exist_ok=True)
+        return os.path.basename(os.path.normpath(source))
+    os.makedirs(work_dir, exist_ok=True)
+    with zipfile.ZipFile(source) as zf:
+        zf.extractall(work_dir)
+    return os.path.splitext(os.path.basename(source))[0]
+
+
+def find_target(work_dir, base_name):
+    for candidate in (f"{base_name}.py", "main.py"):
+        path = os.path.join(work_dir, candidate)
+        if os.path.isfile(path):
+            return path
+    return None
+
+
+def count_statements(path):
+    """Statement count as pylint uses it for the score; the backend recomputes scores from cached files."""
+    try:
+        with open(path, "rb") as f:
+            tree = ast.parse(f.read(), filename=path)
+    except (SyntaxError, ValueError):
+        return 0
+    return sum(1 for node in ast.walk(tree) if isinstance(node, ast.stmt))
+
+
+def lint(reporter, work_dir, skip):
+    """Lints the top-level files except those in skip, whose results the backend already has cached."""
+    files = [f for f in sorted(glob.glob(os.path.join(work_dir, "*.py"))) if os.path.basename(f) not in skip]
+    if not files:
+        reporter.emit("lint", messages=[], score=None, files=[])
+        return
+    proc = subprocess.run([sys.executable, "-m", "pylint", "--output-format=json2", *files],
+                          capture_output=True, text=True)
+    try:
+        report = json.loads(proc.stdout)
+    except ValueError:
+        print(f"pylint produced no report: {proc.stderr}", file=sys.stderr)
+        reporter.emit("lint", messages=[], score=None, files=[])
+        return
+
+    messages = [{
+        "path": os.path.relpath(m.get("absolutePath") or m["path"], work_dir),
+        "module": m.get("module"),
+        "line": m.get("line"),
+        "column": m.get("column"),
+        "type": m.get("type"),
+        "messageId": m.get("messageId"),
+        "symbol": m.get("symbol"),
+        "message": m.get("message"),
+    } for m in report.get("messages", [])]
+    linted = [{"path": os.path.relpath(f, work_dir), "statements": count_statements(f)} for f in files]
+    reporter.emit("lint", messages=messages, score=report.get("statistics", {}).get("score"), files=linted)
+
+
+class Limits:
+    """Per-process limits applied in the forked child, so they bind the student's program only."""
+
+    def __init__(self, job, ids=None):
+        self.ids = ids
+        self.time_seconds = float(job.get("timeLimitSeconds") or DEFAULT_TIME_LIMIT_SECONDS)
+        self.memory_mb = int(job.get("memoryLimitMb") or 0)
+        # CPU time is the enforced limit; the wall clock only catches programs that block or sleep
+        self.wall_seconds = self.time_seconds * WALL_TIME_FACTOR + 1
+
+    def apply(self):
+        cpu = max(1, math.ceil(self.time_seconds))
+        resource.setrlimit(resource.RLIMIT_CPU, (cpu, cpu + 1))
+        if self.memory_mb > 0:
+            memory = self.memory_mb * 1024 * 1024
+            resource.setrlimit(resource.RLIMIT_AS, (memory, memory))
+        resource.setrlimit(resource.RLIMIT_FSIZE, (FILE_SIZE_LIMIT, FILE_SIZE_LIMIT))
+        resource.setrlimit(resource.RLIMIT_CORE, (0, 0))
+        if self.ids is not None:
+            # Last, since the limits above are set while still root; the program can never raise them
+            uid, gid = self.ids
+            os.setgroups([])
+            os.setgid(gid)
+            os.setuid(uid)
+
+
+class Exit:
+    """How a case's process ended, as reported by whoever reaped it."""
+
+    def __init__(self, status, cpu_seconds, max_rss, end):
+        self.status = status
+        self.cpu_seconds = cpu_seconds
+        # ru_maxrss is in KB on Linux
+        self.max_rss = max_rss
+        self.end = end
+
+
+def enter_case(fds, target_file, limits, forget):
+    """First steps of a case's child: its pipes as stdio, its own process group, then the limits."""
+    stdin_read, stdout_write, stderr_write = fds
+    os.setsid()
+    os.dup2(stdin_read, 0)
+    os.dup2(stdout_write, 1)
+    os.dup2(stderr_write, 2)
+    os.closerange(3, CLOSE_FDS_UP_TO)
+    os.chdir(os.path.dirname(target_file))
+    forget()
+    limits.apply()
+
+
+class ExecLauncher:
+    """
+    Runs each case in a fresh interpreter, as "python3 -u target" would. Cases are children of the
+    harness, but exec replaces everything the harness had in memory before the program starts.
+    """
+
+    def __init__(self, target_file, limits, forget):
+        self.target_file = target_file
+        self.limits = limits
+        self.forget = forget
+
+    def start(self, fds):
+        pid = os.fork()
+        if pid == 0:
+            try:
+                enter_case(fds, self.target_file, self.limits, self.forget)
+                os.execvp("python3", ["python3", "-u", self.target_file])
+            except BaseException:
+                traceback.print_exc()
+            os._exit(127)
+        return pid
+
+    def poll(self, pid):
+        pid, status, usage = os.wait4(pid, os.WNOHANG)
+        if pid == 0:
+            return None
+        return Exit(status, usage.ru_utime + usage.ru_stime, usage.ru_maxrss, time.monotonic())
+
+    def kill(self, pid):
+        # The whole process group, so children the program started cannot keep its pipes open
+        try:
+            os.killpg(pid, signal.SIGKILL)
+        except ProcessLookupError:
+            pass
+
+    def close(self):
+        pass
+
+
+class ForkLauncher:
+    """
+    The program as the fork server runs it: the target is compiled once and every case is a fork of
+    the already booted server, so a case pays neither interpreter startup nor the stdlib imports below.
+    Each fork is its own process, so nothing a case does is visible to the next one.
+    If the submission has a file named like a module loaded here (its own random.py, say), the child
+    forgets everything loaded after startup, so imports resolve exactly as they would under python3.
+    """
+
+    PRELOAD = ("bisect", "collections", "functools", "heapq", "itertools", "math", "random", "re",
+               "statistics", "string", "typing")
+
+    def __init__(self, target_file):
+        self.target_file = target_file
+        for module in self.PRELOAD:
+            importlib.import_module(module)
+        program_dir = os.path.dirname(target_file)
+        local_modules = {os.path.splitext(name)[0] for name in os.listdir(program_dir)
+                         if name.endswith(".py") or os.path.isdir(os.path.join(program_dir, name))}
+        loaded = {name.partition(".")[0] for name in sys.modules} - STARTUP_MODULES
+        self.shadowed = sorted(local_modules & loaded)
+        with open(target_file, "rb") as f:
+            source = f.read()
+        try:
+            self.code = compile(source, target_file, "exec")
+            self.syntax_error = None
+        except SyntaxError as e:
+            self.code = None
+            self.syntax_error = e
+
+    def become_program(self):
+        # Fresh unbuffered streams over the case's pipes, matching python3 -u
+        sys.stdin = sys.__stdin__ = io.TextIOWrapper(io.FileIO(0, "r", closefd=False))
+        sys.stdout = sys.__stdout__ = io.TextIOWrapper(io.FileIO(1, "w", closefd=False), write_through=True)
+        sys.stderr = sys.__stderr__ = io.TextIOWrapper(io.FileIO(2, "w", closefd=False), write_through=True)
+        sys.argv = [self.target_file]
+        sys.path[0] = os.path.dirname(self.target_file)
+        if self.shadowed:
+            # Whole import state, not just the clashing names: a preloaded module importing one of
+            # them would otherwise keep using the standard library copy
+            for name in list(sys.modules):
+                if name.partition(".")[0] not in STARTUP_MODULES:
+                    del sys.modules[name]
+            importlib.invalidate_caches()
+        main_module = types.ModuleType("__main__")
+        main_module.__file__ = self.target_file
+        main_module.__builtins__ = builtins
+        sys.modules["__main__"] = main_module
+
+        exit_code = 0
+        try:
+            if self.syntax_error is not None:
+                raise self.syntax_error
+            exec(self.code, main_module.__dict__)
+        except SystemExit as e:
+            if e.code is None:
+                exit_code = 0
+            elif isinstance(e.code, int):
+                exit_code = e.code
+            else:
+                print(e.code, file=sys.stderr)
+                exit_code = 1
+        except BaseException as e:
+            # Drop the harness's own frame so the traceback reads as if python3 ran the file
+            frames = None if e is self.syntax_error else e.__traceback__.tb_next
+            traceback.print_exception(type(e), e, frames)
+            exit_code = 1
+        finally:
+            sys.stdout.flush()
+            sys.stderr.flush()
+        os._exit(exit_code & 0xFF)
+
+
+def serve(sock):
+    """
+    The fork server's loop. It only ever learns the target, the limits and, per case, the case's pipe
+    ends; the harness writes the input into the pipe itself. It reaps its cases and reports how they
+    ended, and kills one on request only while it is unreaped, so the pid is still the case's own.
+    """
+    setup = sock.recv(MESSAGE_LIMIT)
+    if not setup:
+        # Exec mode, or the job ended before any case ran
+        return
+    setup = json.loads(setup)
+    limits = Limits(setup, tuple(setup["ids"]) if setup.get("ids") else None)
+    launcher = ForkLauncher(setup["target"])
+    children = set()
+    selector = selectors.DefaultSelector()
+    selector.register(sock, selectors.EVENT_READ)
+    while True:
+        if selector.select(REAP_INTERVAL if children else None):
+            data, fds, _, _ = socket.recv_fds(sock, MESSAGE_LIMIT, 3)
+            if not data:
+                break
+            message = json.loads(data)
+            if message["op"] == "run":
+                pid = os.fork()
+                if pid == 0:
+                    try:
+                        enter_case(fds, launcher.target_file, limits, lambda: None)
+                        launcher.become_program()
+                    except BaseException:
+                        traceback.print_exc()
+                    os._exit(127)
+                for fd in fds:
+                    os.close(fd)
+                children.add(pid)
+                sock.send(json.dumps({"started": pid}).encode())
+            elif message["op"] == "kill" and message["pid"] in children:
+                try:
+                    os.killpg(message["pid"], signal.SIGKILL)
+                except ProcessLookupError:
+                    pass
+        while children:
+            pid, status, usage = os.wait4(-1, os.WNOHANG)
+            if pid == 0:
+                break
+            children.discard(pid)
+            sock.send(json.dumps({"exited": pid, "status": status, "cpu": usage.ru_utime + usage.ru_stime,
+                                  "maxrss": usage.ru_maxrss, "end": time.monotonic()}).encode())
+    for pid in children:
+        try:
+            os.killpg(pid, signal.SIGKILL)
+        except ProcessLookupError:
+            pass
+
+
+class ForkServer:
+    """
+    Harness side of the fork server. The server is forked first thing, before the harness reads the
+    nonce or the job, so a case forked from it cannot find either in its memory, however it looks:
+    the expected outputs only ever exist in the harness. Each case's pipe ends are passed to the
+    server over a Unix socket; its exit status and resource usage come back the same way.
+    """
+
+    def __init__(self):
+        harness_end, server_end = socket.socketpair(socket.AF_UNIX, socket.SOCK_SEQPACKET)
+        self.pid = os.fork()
+        if self.pid == 0:
+            exit_code = 1
+            try:
+                harness_end.close()
+                # The nonce is still unread on stdin and stdout carries the records
+                null = os.open(os.devnull, os.O_RDWR)
+                os.dup2(null, 0)
+                os.dup2(null, 1)
+                os.close(null)
+                serve(server_end)
+                exit_code = 0
+            except BaseException:
+                traceback.print_exc()
+            os._exit(exit_code)
+        server_end.close()
+        self.sock = harness_end
+        self.exits = {}
+
+    def launch(self, target_file, job, ids):
+        self.sock.send(json.dumps({"target": target_file, "timeLimitSeconds": job.get("timeLimitSeconds"),
+                                   "memoryLimitMb": job.get("memoryLimitMb"), "ids": ids}).encode())
+        return self
+
+    def start(self, fds):
+        socket.send_fds(self.sock, [json.dumps({"op": "run"}).encode()], list(fds))
+        while True:
+            message = self.receive(0)
+            if "started" in message:
+                return message["started"]
+
+    def poll(self, pid):
+        try:
+            while True:
+                self.receive(socket.MSG_DONTWAIT)
+        except BlockingIOError:
+            pass
+        return self.exits.pop(pid, None)
+
+    def kill(self, pid):
+        self.sock.send(json.dumps({"op": "kill", "pid": pid}).encode())
+
+    def receive(self, flags):
+        data = self.sock.recv(MESSAGE_LIMIT, flags)
+        if not data:
+            raise RuntimeError("fork server exited")
+        message = json.loads(data)
+        if "exited" in message:
+            self.exits[message["exited"]] = Exit(message["status"], message["cpu"], message["maxrss"], message["end"])
+        return message
+
+    def close(self):
+        if self.sock is not None:
+            self.sock.close()
+            self.sock = None
+            os.waitpid(self.pid, 0)
+
+
+class Run:
+    """One child process: its pending stdin, captured output and deadline."""
+
+    def __init__(self, key, launcher, stdin_data, limits, merge_stderr):
+        self.key = key
+        self.launcher = launcher
+        self.stdin_data = stdin_data.encode()
+        self.stdout = bytearray()
+        self.stderr = bytearray()
+        self.timed_out = False
+
+        stdin_read, self.stdin_fd = os.pipe()
+        self.stdout_fd, stdout_write = os.pipe()
+        if merge_stderr:
+            self.stderr_fd, stderr_write = None, stdout_write
+        else:
+            self.stderr_fd, stderr_write = os.pipe()
+
+        # Runtime is measured from the fork, so interpreter boot only counts when the launcher execs one
+        self.start = time.monotonic()
+        self.deadline = self.start + limits.wall_seconds
+        self.pid = launcher.start((stdin_read, stdout_write, stderr_write))
+
+        for fd in {stdin_read, stdout_write, stderr_write}:
+            os.close(fd)
+        os.set_blocking(self.stdin_fd, False)
+        self.open_streams = 0
+        self.exit = None
+
+    def kill(self):
+        self.timed_out = True
+        self.launcher.kill(self.pid)
+
+    def reap(self):
+        """True once the child has exited and been reaped; never blocks."""
+        if self.exit is None:
+            self.exit = self.launcher.poll(self.pid)
+        return self.exit is not None
+
+    def finish(self):
+        return {
+            "exitCode": os.waitstatus_to_exitcode(self.exit.status),
+            "runtime": int((self.exit.end - self.start) * 1000),
+            "cpuTime": int(self.exit.cpu_seconds * 1000),
+            "memory": self.exit.max_rss,
+            "stdout": self.stdout.decode(errors="replace"),
+            "stderr": self.stderr.decode(errors="replace"),
+            "timedOut": self.timed_out,
+        }
+
+
+def run_all(jobs, launcher, limits, width, on_done, merge_stderr=False):
+    """
+    Runs (key, stdin) jobs with at most `width` children alive at once. A single selector loop feeds
+    stdin and drains stdout/stderr for every child, so no case waits on another and no threads are
+    needed (forking is not safe alongside threads).
+    """
+    pending = list(jobs)
+    pending.reverse()
+    running = []
+    selector = selectors.DefaultSelector()
+
+    def close(fd, run):
+        selector.unregister(fd)
+        os.close(fd)
+        run.open_streams -= 1
+
+    while pending or running:
+        while pending and len(running) < width:
+            key, stdin_data = pending.pop()
+            run = Run(key, launcher, stdin_data, limits, merge_stderr)
+            selector.register(run.stdin_fd, selectors.EVENT_WRITE, (run, None))
+            selector.register(run.stdout_fd, selectors.EVENT_READ, (run, run.stdout))
+            run.open_streams = 2
+            if run.stderr_fd is not None:
+                selector.register(run.stderr_fd, selectors.EVENT_READ, (run, run.stderr))
+                run.open_streams = 3
+            running.append(run)
+
+        deadlines = [run.deadline for run in running if not run.timed_out]
+        timeout = max(0.0, min(deadlines) - time.monotonic()) if deadlines else 0.1
+        if any(run.open_streams == 0 for run in running):
+            # A child that closed its pipes but has not exited yet is polled until it does or is killed
+            timeout = min(timeout, 0.01)
+        for key, _ in selector.select(timeout):
+            run, buffer = key.data
+            fd = key.fd
+            if buffer is None:
+                try:
+                    written = os.write(fd, run.stdin_data[:PIPE_CHUNK])
+                    run.stdin_data = run.stdin_data[written:]
+                except BlockingIOError:
+                    continue
+                except BrokenPipeError:
+                    # The program exited without reading all of its input
+                    run.stdin_data = b""
+                if not run.stdin_data:
+                    close(fd, run)
+            else:
+                chunk = os.read(fd, PIPE_CHUNK)
+                if chunk:
+                    # Keep draining past the cap so the child never blocks on a full pipe
+                    if len(buffer) < CAPTURE_LIMIT:
+                        buffer.extend(chunk[:CAPTURE_LIMIT - len(buffer)])
+                else:
+                    close(fd, run)
+
+        now = time.monotonic()
+        for run in list(running):
+            if run.open_streams == 0 and run.reap():
+                running.remove(run)
+                on_done(run.key, run.finish())
+            elif now >= run.deadline and not run.timed_out:
+                # Also covers a child that closed its pipes and kept running; it is reaped once the kill lands
+                run.kill()
+
+    selector.close()
+
+
+def test_result(index, test_case, outcome, limits):
+    expected_output = test_case["expected"].strip()
+    result = {"index": index, "input": test_case["input"].strip(), "expected": expected_output,
+              "memory": outcome["memory"], "runtime": outcome["runtime"], "cpuTime": outcome["cpuTime"]}
+    errors = outcome["stderr"].strip()
+    # SIGXCPU is the soft CPU limit; SIGKILL at the hard limit is told apart from the OOM killer by CPU used
+    cpu_exceeded = outcome["exitCode"] == -signal.SIGXCPU or \
+        outcome["exitCode"] == -signal.SIGKILL and outcome["cpuTime"] >= limits.time_seconds * 900
+    if outcome["timedOut"] or cpu_exceeded:
+        result.update(actual="Timeout", status="Failed",
+                      error=f"Execution exceeded the time limit of {limits.time_seconds:g} seconds")
+    elif limits.memory_mb > 0 and "MemoryError" in errors:
+        result.update(actual="", status="Failed",
+                      error=f"Execution exceeded the memory limit of {limits.memory_mb} MB")
+    else:
+        actual = outcome["stdout"].strip()
+        result.update(actual=truncate(actual), status="Passed" if actual == expected_output else "Failed",
+                      error=truncate(errors) if errors else None)
+    return result
+
+
+def main():
+    if len(sys.argv) != 4:
+        print("Usage: harness.py <job_file> <source> <work_dir>", file=sys.stderr)
+        sys.exit(2)
+    job_file, source, work_dir = sys.argv[1:]
+    # Before anything secret is read, so nothing forked from the server can find it
+    fork_server = ForkServer()
+    try:
+        run_job(fork_server, job_file, source, work_dir)
+    finally:
+        fork_server.close()
+
+
+def run_job(fork_server, job_file, source, work_dir):
+    reporter = Reporter(read_nonce())
+    with open(job_file) as f:
+        job = json.load(f)
+    # Both are in memory now; the program runs next to them, so neither may stay on disk
+    os.remove(job_file)
+    os.remove(os.path.abspath(__file__))
+    reporter.emit("hello", version=PROTOCOL_VERSION)
+
+    base_name = prepare(source, work_dir)
+    base_name = job.get("entry") or base_name
+    lint(reporter, work_dir, set(job.get("lintSkip") or []))
+    ids = sandbox_ids()
+    confine(os.path.dirname(os.path.abspath(job_file)), work_dir, ids)
+
+    target_file = find_target(work_dir, base_name)
+    if target_file is None:
+        reporter.emit("error", message=f"Neither {base_name}.py nor main.py found in the zip file.")
+        reporter.emit("end")
+        return
+
+    limits = Limits(job, ids)
+    if job.get("mode", "fork") == "fork":
+        launcher = fork_server.launch(target_file, job, ids)
+    else:
+        fork_server.close()
+        launcher = ExecLauncher(target_file, limits, reporter.forget)
+    width = max(1, int(job.get("parallelism") or 1))
+    tests = job.get("testCases") or []
+    start = time.monotonic()
+    peak_memory = 0
+    if tests:
+        def on_test_done(index, outcome):
+            nonlocal peak_memory
+            peak_memory = max(peak_memory, outcome["memory"])
+            reporter.emit("test", **test_result(index, tests[index], outcome, limits))
+
+        run_all([(i, t["input"].strip() + "\n") for i, t in enumerate(tests)], launcher, limits, width, on_test_done)
+    else:
+        def on_program_done(_, outcome):
+            nonlocal peak_memory
+            peak_memory = outcome["memory"]
+            reporter.emit("output", text=truncate(outcome["stdout"]), exitCode=outcome["exitCode"])
+
+        run_all([(0, "")], launcher, limits, 1, on_program_done, merge_stderr=True)
+    runtime = int((time.monotonic() - start) * 1000)
+
+    reporter.emit("metrics", runtime=runtime, memory=peak_memory)
+    reporter.emit("end")
+
+
+if __name__ == "__main__":
+    main()
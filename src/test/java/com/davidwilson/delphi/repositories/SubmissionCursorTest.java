@@ -0,0 +1,29 @@
+package com.davidwilson.delphi.repositories;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SubmissionCursorTest {
+
+    @Test
+    void encodedCursorParsesBackToItself() {
+        SubmissionCursor cursor = new SubmissionCursor(new Timestamp(1_700_000_000_123L), UUID.randomUUID());
+
+        assertThat(SubmissionCursor.parse(cursor.encode())).isEqualTo(cursor);
+    }
+
+    @Test
+    void rejectsMalformedCursors() {
+        assertThatThrownBy(() -> SubmissionCursor.parse("1700000000123"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> SubmissionCursor.parse("abc_" + UUID.randomUUID()))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> SubmissionCursor.parse("1700000000123_not-a-uuid"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
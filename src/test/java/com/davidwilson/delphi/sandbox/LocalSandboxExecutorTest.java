@@ -0,0 +1,77 @@
+package com.davidwilson.delphi.sandbox;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Runs the real harness on the host, so it is skipped where python3 is not installed.
+ */
+class LocalSandboxExecutorTest {
+
+    private static final String SECRET = "expected-7f3a9c";
+
+    // Looks for the expected output everywhere the program can reach: every object the collector
+    // tracks and every frame up the stack. Prints whatever it finds instead of the right answer.
+    private static final String CHEATING_SUBMISSION = """
+            import gc, sys
+            found = set()
+            for obj in gc.get_objects():
+                try:
+                    if isinstance(obj, dict) and "expected" in obj:
+                        found.add(str(obj["expected"]))
+                    elif isinstance(obj, (str, bytes, bytearray)) and "%1$s" in str(obj):
+                        found.add(str(obj))
+                except Exception:
+                    pass
+            frame = sys._getframe().f_back
+            while frame is not None:
+                for value in list(frame.f_locals.values()):
+                    if "%1$s" in repr(value):
+                        found.add("%1$s")
+                frame = frame.f_back
+            print(sorted(found) if found else "nothing")
+            """.formatted(SECRET);
+
+    @TempDir
+    Path workspace;
+
+    @BeforeAll
+    static void requirePython() {
+        boolean available;
+        try {
+            available = new ProcessBuilder("python3", "--version").start().waitFor() == 0;
+        } catch (Exception e) {
+            available = false;
+        }
+        assumeTrue(available, "python3 is not installed");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"fork", "exec"})
+    void submissionCannotReadTheExpectedOutput(String mode) throws Exception {
+        Path source = Files.createDirectories(workspace.resolve(SandboxJob.SOURCE_DIR));
+        Files.writeString(source.resolve("main.py"), CHEATING_SUBMISSION);
+        List<SandboxJob.TestInput> tests = List.of(
+                new SandboxJob.TestInput("1", SECRET),
+                new SandboxJob.TestInput("2", SECRET));
+        SandboxJob job = new SandboxJob(workspace, "main", tests, 30, 2.0, 512, 2, mode, null);
+        SandboxReport report = new SandboxReport(job);
+
+        new LocalSandboxExecutor().execute(job, report);
+
+        assertThat(report.isComplete()).as(report.getDiagnostics()).isTrue();
+        assertThat(report.getTestResults()).hasSize(2).allSatisfy(result -> {
+            assertThat(result.passed()).isFalse();
+            assertThat(result.actual()).isEqualTo("nothing");
+        });
+    }
+}
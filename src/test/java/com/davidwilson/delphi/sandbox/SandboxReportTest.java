@@ -0,0 +1,97 @@
+package com.davidwilson.delphi.sandbox;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SandboxReportTest {
+
+    private SandboxJob job;
+    private SandboxReport report;
+
+    @BeforeEach
+    void setUp() {
+        job = new SandboxJob(Path.of("job"), "main", List.of(), 10, 1.0, 64, 1, "fork", null);
+        report = new SandboxReport(job);
+    }
+
+    private String frame(String json) {
+        return "@@delphi/" + SandboxReport.PROTOCOL_VERSION + " " + job.getNonce() + " " + json;
+    }
+
+    @Test
+    void collectsRecordsBetweenHelloAndEnd() {
+        report.accept(frame("{\"type\":\"hello\",\"version\":1}"));
+        report.accept(frame("{\"type\":\"test\",\"index\":0,\"status\":\"Passed\",\"actual\":\"1\",\"extra\":true}"));
+        report.accept(frame("{\"type\":\"test\",\"index\":1,\"status\":\"Failed\",\"actual\":\"2\"}"));
+        report.accept(frame("{\"type\":\"metrics\",\"runtime\":12,\"memory\":2048}"));
+        report.accept(frame("{\"type\":\"end\"}"));
+
+        assertThat(report.isComplete()).isTrue();
+        assertThat(report.getProtocolError()).isNull();
+        assertThat(report.getTestResults()).extracting(SandboxRecord.TestCaseResult::index).containsExactly(0, 1);
+        assertThat(report.getTestResults().get(0).passed()).isTrue();
+        assertThat(report.getMetrics().memory()).isEqualTo(2048);
+    }
+
+    @Test
+    void returnsTestResultsInCaseOrder() {
+        // Cases run in parallel and are reported as they finish
+        report.accept(frame("{\"type\":\"test\",\"index\":2,\"status\":\"Passed\"}"));
+        report.accept(frame("{\"type\":\"test\",\"index\":0,\"status\":\"Passed\"}"));
+        report.accept(frame("{\"type\":\"test\",\"index\":1,\"status\":\"Failed\"}"));
+
+        assertThat(report.getTestResults()).extracting(SandboxRecord.TestCaseResult::index).containsExactly(0, 1, 2);
+    }
+
+    @Test
+    void keepsUnframedLinesAsDiagnostics() {
+        report.accept("Traceback (most recent call last):");
+        report.accept("@@delphi/1 0000 {\"type\":\"end\"}");
+
+        assertThat(report.getDiagnostics()).contains("Traceback").contains("@@delphi/1 0000");
+        assertThat(report.isComplete()).isFalse();
+        assertThat(report.getProtocolError()).isEqualTo("No result report received");
+    }
+
+    @Test
+    void ignoresRecordsForgedWithAnotherNonce() {
+        report.accept(frame("{\"type\":\"hello\",\"version\":1}"));
+        report.accept("@@delphi/1 " + "f".repeat(32) + " {\"type\":\"end\"}");
+
+        assertThat(report.isComplete()).isFalse();
+        assertThat(report.getProtocolError()).isEqualTo("Result report ended early");
+    }
+
+    @Test
+    void rejectsAnotherProtocolVersion() {
+        report.accept("@@delphi/2 " + job.getNonce() + " {\"type\":\"hello\",\"version\":2}");
+
+        assertThat(report.getProtocolError()).isEqualTo("Unsupported result protocol: @@delphi/2");
+    }
+
+    @Test
+    void malformedRecordSpoilsTheReport() {
+        report.accept(frame("{\"type\":\"hello\",\"version\":1}"));
+        report.accept(frame("{not json"));
+        report.accept(frame("{\"type\":\"end\"}"));
+
+        assertThat(report.isComplete()).isFalse();
+        assertThat(report.getProtocolError()).isEqualTo("Malformed result record");
+    }
+
+    @Test
+    void recordAfterEndSpoilsTheReport() {
+        report.accept(frame("{\"type\":\"hello\",\"version\":1}"));
+        report.accept(frame("{\"type\":\"end\"}"));
+        report.accept(frame("{\"type\":\"output\",\"text\":\"late\",\"exitCode\":0}"));
+
+        assertThat(report.isComplete()).isFalse();
+        assertThat(report.getOutput()).isNull();
+        assertThat(report.getProtocolError()).isEqualTo("Result record after end of report");
+    }
+}
@@ -0,0 +1,66 @@
+package com.davidwilson.delphi.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AIAnalysisServiceStreamTest {
+
+    private final AIAnalysisService service = new AIAnalysisService(null, null, null, null, null, null, 1, 0, 0);
+
+    private static InputStream stream(String... lines) {
+        return new ByteArrayInputStream(String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void joinsDeltasAndReadsUsage() throws IOException {
+        List<String> deltas = new ArrayList<>();
+
+        AIAnalysisService.Completion completion = service.readStream(stream(
+                ": keep-alive",
+                "data: {\"choices\":[{\"delta\":{\"role\":\"assistant\"}}]}",
+                "",
+                "event: message",
+                "data: {\"choices\":[{\"delta\":{\"content\":\"Looks \"}}]}",
+                "",
+                "data:{\"choices\":[{\"delta\":{\"content\":\"good.\"}}]}",
+                "",
+                "data: {\"choices\":[],\"usage\":{\"total_tokens\":42}}",
+                "",
+                "data: [DONE]",
+                "",
+                "data: {\"choices\":[{\"delta\":{\"content\":\"ignored\"}}]}"), deltas::add);
+
+        assertThat(completion.content()).isEqualTo("Looks good.");
+        assertThat(completion.usedTokens()).isEqualTo(42);
+        assertThat(deltas).containsExactly("Looks ", "good.");
+    }
+
+    @Test
+    void streamWithoutUsageHasNoTokenCount() throws IOException {
+        AIAnalysisService.Completion completion = service.readStream(stream(
+                "data: {\"choices\":[{\"delta\":{\"content\":\"ok\"}}]}"), delta -> {
+        });
+
+        assertThat(completion.content()).isEqualTo("ok");
+        assertThat(completion.usedTokens()).isNull();
+    }
+
+    @Test
+    void errorChunkFailsTheStream() {
+        assertThatThrownBy(() -> service.readStream(stream(
+                "data: {\"choices\":[{\"delta\":{\"content\":\"partial\"}}]}",
+                "data: {\"error\":{\"message\":\"overloaded\"}}"), delta -> {
+        }))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("overloaded");
+    }
+}
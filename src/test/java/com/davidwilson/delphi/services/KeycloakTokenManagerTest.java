@@ -0,0 +1,89 @@
+package com.davidwilson.delphi.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class KeycloakTokenManagerTest {
+
+    private static final String TOKEN_URI = "http://keycloak/token";
+
+    private final RestTemplate restTemplate = mock(RestTemplate.class);
+    private final AtomicInteger issued = new AtomicInteger();
+    private KeycloakTokenManager tokenManager;
+
+    @BeforeEach
+    void setUp() {
+        tokenManager = new KeycloakTokenManager(restTemplate, "delphi", "secret", TOKEN_URI, 30);
+    }
+
+    private void respondWithTokens(CountDownLatch release) {
+        when(restTemplate.postForEntity(eq(TOKEN_URI), any(HttpEntity.class), eq(Map.class))).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return ResponseEntity.ok(Map.of("access_token", "token-" + issued.incrementAndGet(), "expires_in", 300));
+        });
+    }
+
+    @Test
+    void concurrentCallersShareOneTokenRequest() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        respondWithTokens(release);
+
+        List<Future<String>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(tokenManager::getAccessToken));
+            }
+            Thread.sleep(200);
+            release.countDown();
+            for (Future<String> result : results) {
+                assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("token-1");
+            }
+        }
+        verify(restTemplate, times(1)).postForEntity(eq(TOKEN_URI), any(HttpEntity.class), eq(Map.class));
+    }
+
+    @Test
+    void refreshesARejectedTokenOnlyOnce() {
+        CountDownLatch release = new CountDownLatch(0);
+        respondWithTokens(release);
+
+        String rejected = tokenManager.getAccessToken();
+        assertThat(tokenManager.refreshAccessToken(rejected)).isEqualTo("token-2");
+        // A caller still holding the first token finds it already replaced
+        assertThat(tokenManager.refreshAccessToken(rejected)).isEqualTo("token-2");
+        verify(restTemplate, times(2)).postForEntity(eq(TOKEN_URI), any(HttpEntity.class), eq(Map.class));
+    }
+
+    @Test
+    void failedRequestIsRetriedByTheNextCaller() {
+        when(restTemplate.postForEntity(eq(TOKEN_URI), any(HttpEntity.class), eq(Map.class)))
+                .thenThrow(new RestClientException("connection refused"))
+                .thenAnswer(invocation -> ResponseEntity.ok(Map.of("access_token", "fresh", "expires_in", 300)));
+
+        assertThatThrownBy(tokenManager::getAccessToken).isInstanceOf(RestClientException.class);
+        assertThat(tokenManager.getAccessToken()).isEqualTo("fresh");
+    }
+}
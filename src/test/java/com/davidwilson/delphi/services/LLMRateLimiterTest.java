@@ -0,0 +1,64 @@
+package com.davidwilson.delphi.services;
+
+import com.davidwilson.delphi.config.AIConfiguration;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LLMRateLimiterTest {
+
+    private final LLMRateLimiter rateLimiter = new LLMRateLimiter();
+
+    private static AIConfiguration config(Integer requestsPerMinute, Integer tokensPerMinute) {
+        AIConfiguration config = new AIConfiguration();
+        config.setRequestsPerMinute(requestsPerMinute);
+        config.setTokensPerMinute(tokensPerMinute);
+        return config;
+    }
+
+    private long millisToAcquire(AIConfiguration config, int tokens) throws InterruptedException {
+        long start = System.nanoTime();
+        rateLimiter.acquire(config, tokens);
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    @Test
+    void unlimitedConfigurationNeverWaits() throws InterruptedException {
+        AIConfiguration config = config(null, 0);
+        for (int i = 0; i < 1000; i++) {
+            rateLimiter.acquire(config, 1_000_000);
+        }
+    }
+
+    @Test
+    void waitsForTheTokensToRefill() throws InterruptedException {
+        // 10,000 tokens a second
+        AIConfiguration config = config(null, 600_000);
+        assertThat(millisToAcquire(config, 600_000)).isLessThan(100);
+
+        assertThat(millisToAcquire(config, 5_000)).isGreaterThanOrEqualTo(400);
+    }
+
+    @Test
+    void refundedTokensCanBeUsedRightAway() throws InterruptedException {
+        AIConfiguration config = config(null, 600_000);
+        rateLimiter.acquire(config, 600_000);
+        rateLimiter.recordUsage(600_000, 1_000);
+
+        assertThat(millisToAcquire(config, 500_000)).isLessThan(100);
+    }
+
+    @Test
+    void requestLargerThanTheAllowanceOnlyWaitsForAFullBucket() throws InterruptedException {
+        assertThat(millisToAcquire(config(60, 1_000), 5_000)).isLessThan(100);
+    }
+
+    @Test
+    void changedLimitStartsFromAFullAllowance() throws InterruptedException {
+        rateLimiter.acquire(config(1, null), 0);
+
+        assertThat(millisToAcquire(config(2, null), 0)).isLessThan(100);
+    }
+}
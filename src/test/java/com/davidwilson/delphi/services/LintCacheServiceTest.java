@@ -0,0 +1,63 @@
+package com.davidwilson.delphi.services;
+
+import com.davidwilson.delphi.sandbox.SandboxRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LintCacheServiceTest {
+
+    private static SandboxRecord.LintMessage message(String type) {
+        return new SandboxRecord.LintMessage("main.py", "main", 1, 0, type, "X0000", "symbol", "text");
+    }
+
+    @Test
+    void scoresWithPylintsFormula() {
+        List<SandboxRecord.LintMessage> messages = List.of(message("error"), message("warning"), message("convention"));
+
+        // 10 - ((5 + 1 + 1) / 20) * 10
+        assertThat(LintCacheService.score(messages, 20)).isEqualTo(6.5);
+        assertThat(LintCacheService.score(List.of(message("info")), 20)).isEqualTo(10.0);
+    }
+
+    @Test
+    void neverScoresBelowZero() {
+        assertThat(LintCacheService.score(List.of(message("error"), message("error")), 1)).isEqualTo(0.0);
+    }
+
+    @Test
+    void fatalMessageScoresZero() {
+        assertThat(LintCacheService.score(List.of(message("convention"), message("fatal")), 100)).isEqualTo(0.0);
+    }
+
+    @Test
+    void noStatementsScoresOnlyWhenThereAreMessages() {
+        assertThat(LintCacheService.score(List.of(), 0)).isNull();
+        assertThat(LintCacheService.score(List.of(message("error")), 0)).isEqualTo(0.0);
+    }
+
+    @Test
+    void moduleSetHashChangesWithAnyOtherModule(@TempDir Path project) throws Exception {
+        Files.writeString(project.resolve("main.py"), "import helper\nhelper.run()\n");
+        Files.writeString(project.resolve("helper.py"), "def run():\n    pass\n");
+        Files.writeString(project.resolve("notes.txt"), "not a module");
+        String original = LintCacheService.moduleSetHash(project);
+
+        Files.writeString(project.resolve("notes.txt"), "still not a module");
+        assertThat(LintCacheService.moduleSetHash(project)).isEqualTo(original);
+
+        // main.py is unchanged, but helper.run no longer exists: its no-member message must not be reused
+        Files.writeString(project.resolve("helper.py"), "def walk():\n    pass\n");
+        String edited = LintCacheService.moduleSetHash(project);
+        assertThat(edited).isNotEqualTo(original);
+
+        Files.createDirectories(project.resolve("pkg"));
+        Files.writeString(project.resolve("pkg/__init__.py"), "");
+        assertThat(LintCacheService.moduleSetHash(project)).isNotEqualTo(edited);
+    }
+}
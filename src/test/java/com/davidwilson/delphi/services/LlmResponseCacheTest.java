@@ -0,0 +1,64 @@
+package com.davidwilson.delphi.services;
+
+import com.davidwilson.delphi.config.AIConfiguration;
+import com.davidwilson.delphi.repositories.LlmResponseCacheRepository;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class LlmResponseCacheTest {
+
+    private final LlmResponseCache cache = new LlmResponseCache(mock(LlmResponseCacheRepository.class), true, 1.0, 720, 1 << 20);
+
+    private static AIConfiguration config(double temperature) {
+        AIConfiguration config = new AIConfiguration();
+        config.setModel("gpt-4o-mini");
+        config.setSystemPrompt("You review code.");
+        config.setTemperature(temperature);
+        config.setMaxTokens(1000);
+        return config;
+    }
+
+    @Test
+    void normalizeIgnoresLineEndingsAndTrailingWhitespace() {
+        assertThat(LlmResponseCache.normalize("  def f():  \r\n\treturn 1\t\r\n\n"))
+                .isEqualTo("def f():\n\treturn 1");
+        assertThat(LlmResponseCache.normalize("a  b")).isEqualTo("a  b");
+    }
+
+    @Test
+    void keyIsStableAcrossFormattingOnlyDifferences() {
+        String key = cache.keyFor(config(0.2), "print(1)\n", false);
+
+        assertThat(key).hasSize(64);
+        assertThat(cache.keyFor(config(0.2), "print(1)  \r\n", false)).isEqualTo(key);
+        assertThat(cache.keyFor(config(0.2), "print(2)\n", false)).isNotEqualTo(key);
+        assertThat(cache.keyFor(config(0.3), "print(1)\n", false)).isNotEqualTo(key);
+    }
+
+    @Test
+    void keyKeepsFieldBoundaries() {
+        AIConfiguration first = config(0.2);
+        first.setModel("ab");
+        first.setSystemPrompt("c");
+        AIConfiguration second = config(0.2);
+        second.setModel("a");
+        second.setSystemPrompt("bc");
+
+        assertThat(cache.keyFor(first, "p", false)).isNotEqualTo(cache.keyFor(second, "p", false));
+    }
+
+    @Test
+    void noKeyWhenTheResponseMustNotBeCached() {
+        AIConfiguration optedOut = config(0.2);
+        optedOut.setCacheResponses(false);
+
+        assertThat(cache.keyFor(config(0.2), "p", true)).isNull();
+        assertThat(cache.keyFor(config(1.5), "p", false)).isNull();
+        assertThat(cache.keyFor(optedOut, "p", false)).isNull();
+        assertThat(new LlmResponseCache(mock(LlmResponseCacheRepository.class), false, 1.0, 720, 1 << 20)
+                .keyFor(config(0.2), "p", false)).isNull();
+        assertThat(cache.snapshot()).containsEntry("bypassed", 3L);
+    }
+}
@@ -0,0 +1,102 @@
+package com.davidwilson.delphi.services;
+
+import com.davidwilson.delphi.config.AIConfiguration;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PromptBuilderTest {
+
+    @TempDir
+    Path projectDir;
+
+    private final PromptBuilder promptBuilder = new PromptBuilder(100_000, 8192, 10_000);
+
+    // 1500 tokens of context, less 3 for "Review:" and 500 kept for the omitted list, leaves 997 for files
+    private static AIConfiguration config() {
+        AIConfiguration config = new AIConfiguration();
+        config.setSystemPrompt("");
+        config.setAnalysisPrompt("Review:");
+        config.setContextWindow(1500);
+        config.setMaxTokens(0);
+        return config;
+    }
+
+    private void write(String relativePath, String content, long modifiedAt) throws IOException {
+        Path file = projectDir.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modifiedAt));
+    }
+
+    private static String lines(int count, int length) {
+        return ("x".repeat(length - 1) + "\n").repeat(count);
+    }
+
+    @Test
+    void estimatesThreeCharactersPerToken() {
+        assertThat(PromptBuilder.estimateTokens(0)).isZero();
+        assertThat(PromptBuilder.estimateTokens(3)).isEqualTo(1);
+        assertThat(PromptBuilder.estimateTokens(4)).isEqualTo(2);
+    }
+
+    @Test
+    void fillsTheBudgetThenTruncatesOneFileAndListsTheRest() throws IOException {
+        write("main.py", "print('hi')\n", 1_000);
+        write("helper.py", lines(100, 60), 3_000);
+        write("other.py", lines(10, 60), 2_000);
+
+        PromptBuilder.Prompt prompt = promptBuilder.build(config(), projectDir, null);
+
+        assertThat(prompt.fileCount()).isEqualTo(2);
+        assertThat(prompt.text()).startsWith("Review:\n\n")
+                .contains("File: main.py\n")
+                .contains("File: helper.py (beginning only)\n")
+                .contains("... [truncated]")
+                .contains("- other.py (600 bytes)")
+                .doesNotContain("File: other.py");
+        assertThat(prompt.text().indexOf("File: main.py")).isLessThan(prompt.text().indexOf("File: helper.py"));
+        assertThat(PromptBuilder.estimateTokens(prompt.text().length())).isLessThanOrEqualTo(1500);
+    }
+
+    @Test
+    void putsTheSubmissionsEntryPointFirst() throws IOException {
+        write("recent.py", "x = 1\n", 5_000);
+        write("solution.py", "y = 2\n", 1_000);
+
+        String text = promptBuilder.build(config(), projectDir, "solution").text();
+
+        assertThat(text.indexOf("File: solution.py")).isLessThan(text.indexOf("File: recent.py"));
+    }
+
+    @Test
+    void skipsVendoredBinaryAndOversizedFiles() throws IOException {
+        write("main.py", "print('hi')\n", 1_000);
+        write("node_modules/lib/index.js", "module.exports = 1;\n", 1_000);
+        write("big.py", lines(200, 60), 1_000);
+        Files.write(projectDir.resolve("blob.py"), new byte[]{'a', 0, 'b'});
+
+        PromptBuilder.Prompt prompt = promptBuilder.build(config(), projectDir, null);
+
+        assertThat(prompt.fileCount()).isEqualTo(1);
+        assertThat(prompt.text()).doesNotContain("node_modules")
+                .contains("- big.py (12000 bytes, too large)")
+                .contains("- blob.py (binary)");
+    }
+
+    @Test
+    void neverExcerptsGeneratedFiles() throws IOException {
+        write("dist/app.min.js", lines(100, 60), 1_000);
+
+        PromptBuilder.Prompt prompt = promptBuilder.build(config(), projectDir, null);
+
+        assertThat(prompt.fileCount()).isZero();
+        assertThat(prompt.text()).contains("- dist/app.min.js (6000 bytes)");
+    }
+}
@@ -0,0 +1,82 @@
+package com.davidwilson.delphi.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ZipExtractorTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path zip(String... namesAndContents) throws IOException {
+        Path file = tempDir.resolve("upload.zip");
+        try (OutputStream out = Files.newOutputStream(file); ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                zip.putNextEntry(new ZipEntry(namesAndContents[i]));
+                zip.write(namesAndContents[i + 1].getBytes());
+                zip.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    @Test
+    void extractsFilesAcceptedByTheFilter() throws IOException {
+        Path archive = zip("main.py", "print(1)", "pkg/util.py", "x = 1", "notes.txt", "hi", "__MACOSX/._main.py", "junk");
+        Path target = tempDir.resolve("out");
+
+        int written = new ZipExtractor(100, 1024, 4096).extract(archive, target, ZipExtractor.CODE_FILES);
+
+        assertThat(written).isEqualTo(2);
+        assertThat(target.resolve("main.py")).hasContent("print(1)");
+        assertThat(target.resolve("pkg/util.py")).exists();
+        assertThat(target.resolve("notes.txt")).doesNotExist();
+        assertThat(target.resolve("__MACOSX")).doesNotExist();
+    }
+
+    @Test
+    void rejectsEntriesOutsideTheTarget() throws IOException {
+        Path target = tempDir.resolve("out");
+        ZipExtractor extractor = new ZipExtractor(100, 1024, 4096);
+
+        assertThatThrownBy(() -> extractor.extract(zip("../evil.py", "x"), target, ZipExtractor.ALL_FILES))
+                .isInstanceOf(ZipQuotaException.class);
+        assertThatThrownBy(() -> extractor.extract(zip("/etc/evil.py", "x"), target, ZipExtractor.ALL_FILES))
+                .isInstanceOf(ZipQuotaException.class);
+        assertThatThrownBy(() -> extractor.extract(zip("a\\..\\..\\evil.py", "x"), target, ZipExtractor.ALL_FILES))
+                .isInstanceOf(ZipQuotaException.class);
+        assertThat(tempDir.resolve("evil.py")).doesNotExist();
+    }
+
+    @Test
+    void stopsAtTheEntryQuota() throws IOException {
+        Path archive = zip("a.py", "1", "b.py", "2", "c.py", "3");
+
+        assertThatThrownBy(() -> new ZipExtractor(2, 1024, 4096).extract(archive, tempDir.resolve("out"), ZipExtractor.ALL_FILES))
+                .isInstanceOf(ZipQuotaException.class)
+                .hasMessageContaining("more than 2 entries");
+    }
+
+    @Test
+    void countsInflatedBytesAgainstTheSizeQuotas() throws IOException {
+        // Compresses to a few bytes, so only the inflated size can trip the quota
+        Path archive = zip("big.py", "0".repeat(10_000), "small.py", "1");
+
+        assertThatThrownBy(() -> new ZipExtractor(100, 4096, 1_000_000).extract(archive, tempDir.resolve("a"), ZipExtractor.ALL_FILES))
+                .isInstanceOf(ZipQuotaException.class)
+                .hasMessageContaining("big.py");
+        assertThatThrownBy(() -> new ZipExtractor(100, 1_000_000, 10_000).extract(archive, tempDir.resolve("b"), ZipExtractor.ALL_FILES))
+                .isInstanceOf(ZipQuotaException.class)
+                .hasMessageContaining("Archive expands to more than 10000 bytes");
+    }
+}